@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH.benchmark;
+
+import com.googlecode.JavaEWAH.EWAHCompressedBitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Two bitmaps of the same shape (and their positions and serialized
+ * form) shared by all the benchmarks of a trial.
+ */
+@State(Scope.Benchmark)
+public class BitmapState {
+
+  @Param({"UNIFORM_SPARSE", "CLUSTERED", "DENSE", "SORTED_COLUMN"})
+  public DataShape shape;
+
+  @Param({"1048576"})
+  public int universe;
+
+  public int[] positions1;
+  public int[] positions2;
+  public EWAHCompressedBitmap bitmap1;
+  public EWAHCompressedBitmap bitmap2;
+  public byte[] serialized1;
+  public ByteBuffer compact1;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    positions1 = shape.positions(universe, new Random(1), 0);
+    positions2 = shape.positions(universe, new Random(2), 1);
+    bitmap1 = build(positions1);
+    bitmap2 = build(positions2);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    bitmap1.writeExternal(oo);
+    oo.close();
+    serialized1 = bos.toByteArray();
+    compact1 = ByteBuffer.allocate(bitmap1.serializedSizeInBytes());
+    bitmap1.serialize(compact1);
+    compact1.flip();
+  }
+
+  static EWAHCompressedBitmap build(int[] positions) {
+    EWAHCompressedBitmap ans = new EWAHCompressedBitmap();
+    for(int k = 0; k < positions.length; ++k)
+      ans.set(positions[k]);
+    return ans;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The kinds of data the benchmarks run over. Each shape produces
+ * a sorted array of set positions within a universe of a given size.
+ */
+public enum DataShape {
+
+  /**
+   * About one bit in a thousand, uniformly at random: mostly
+   * clean runs of zeroes separated by single literal words.
+   */
+  UNIFORM_SPARSE {
+    int[] positions(int universe, Random r, int which) {
+      int[] ans = new int[universe / 1000 + 1];
+      int count = 0;
+      for(int k = 0; k < universe; ++k)
+        if(r.nextInt(1000) == 0) {
+          if(count == ans.length) ans = Arrays.copyOf(ans, 2 * ans.length);
+          ans[count++] = k;
+        }
+      return Arrays.copyOf(ans, count);
+    }
+  },
+
+  /**
+   * Alternating stretches of zeroes and ones of random lengths
+   * (a few thousand bits each): long clean runs of both kinds.
+   */
+  CLUSTERED {
+    int[] positions(int universe, Random r, int which) {
+      int[] ans = new int[universe / 2 + 1];
+      int count = 0;
+      int pos = r.nextInt(4096);
+      while(pos < universe) {
+        int end = Math.min(universe, pos + 1 + r.nextInt(4096));
+        for(; pos < end; ++pos)
+          ans[count++] = pos;
+        pos += 1 + r.nextInt(4096);
+      }
+      return Arrays.copyOf(ans, count);
+    }
+  },
+
+  /**
+   * Every bit set with probability one half: almost only literal words.
+   */
+  DENSE {
+    int[] positions(int universe, Random r, int which) {
+      int[] ans = new int[universe];
+      int count = 0;
+      for(int k = 0; k < universe; ++k)
+        if(r.nextBoolean())
+          ans[count++] = k;
+      return Arrays.copyOf(ans, count);
+    }
+  },
+
+  /**
+   * A bitmap index over a table of three uniformly distributed columns
+   * (of 4, 16 and 256 distinct values) whose rows were sorted
+   * lexicographically, as in Lemire, Kaser and Aouiche, "Sorting improves
+   * word-aligned bitmap indexes". The first bitmap is taken from the
+   * second column (a few long runs), the second one from the third
+   * column (short runs and literals).
+   */
+  SORTED_COLUMN {
+    int[] positions(int universe, Random r, int which) {
+      int[] rows = new int[universe];
+      for(int k = 0; k < universe; ++k)
+        rows[k] = (r.nextInt(4) << 12) | (r.nextInt(16) << 8) | r.nextInt(256);
+      Arrays.sort(rows);
+      int[] ans = new int[universe];
+      int count = 0;
+      for(int k = 0; k < universe; ++k) {
+        boolean match = (which == 0) ? ((rows[k] >>> 8) & 15) == 3
+                                     : (rows[k] & 255) == 17;
+        if(match)
+          ans[count++] = k;
+      }
+      return Arrays.copyOf(ans, count);
+    }
+  };
+
+  /**
+   * @param universe number of bits in the bitmap
+   * @param r source of randomness
+   * @param which 0 for the first operand, 1 for the second one
+   * @return the positions of the set bits, in increasing order
+   */
+  abstract int[] positions(int universe, Random r, int which);
+}
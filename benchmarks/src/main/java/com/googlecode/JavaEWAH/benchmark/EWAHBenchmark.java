@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH.benchmark;
+
+import com.googlecode.JavaEWAH.EWAHCompressedBitmap;
+import com.googlecode.JavaEWAH.IntIterator;
+import com.googlecode.JavaEWAH.IteratorUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the public operations of EWAHCompressedBitmap over
+ * the data shapes of {@link DataShape}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EWAHBenchmark {
+
+  @Benchmark
+  public EWAHCompressedBitmap and(BitmapState s) {
+    return s.bitmap1.and(s.bitmap2);
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap or(BitmapState s) {
+    return s.bitmap1.or(s.bitmap2);
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap xor(BitmapState s) {
+    return s.bitmap1.xor(s.bitmap2);
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap andNot(BitmapState s) {
+    return s.bitmap1.andNot(s.bitmap2);
+  }
+
+  /**
+   * a container kept by each thread, reused from one call to the next
+   */
+  @State(Scope.Thread)
+  public static class ContainerState {
+    public EWAHCompressedBitmap container = new EWAHCompressedBitmap();
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap andInto(BitmapState s, ContainerState c) {
+    return s.bitmap1.andInto(s.bitmap2, c.container);
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap orInto(BitmapState s, ContainerState c) {
+    return s.bitmap1.orInto(s.bitmap2, c.container);
+  }
+
+  /**
+   * (A OR B) AND NOT (A AND B), one operation at a time
+   */
+  @Benchmark
+  public EWAHCompressedBitmap expressionEager(BitmapState s) {
+    return s.bitmap1.or(s.bitmap2).andNot(s.bitmap1.and(s.bitmap2));
+  }
+
+  /**
+   * the same expression, evaluated in one pass over lazy cursors
+   */
+  @Benchmark
+  public EWAHCompressedBitmap expressionLazy(BitmapState s) {
+    EWAHCompressedBitmap ans = new EWAHCompressedBitmap();
+    IteratorUtil.materialize(IteratorUtil.andNot(
+        IteratorUtil.or(s.bitmap1.getIteratingRLW(), s.bitmap2.getIteratingRLW()),
+        IteratorUtil.and(s.bitmap1.getIteratingRLW(), s.bitmap2.getIteratingRLW())), ans);
+    return ans;
+  }
+
+  /**
+   * not() works in place, so we negate a copy: the copy is part of
+   * the measurement.
+   */
+  @Benchmark
+  public EWAHCompressedBitmap not(BitmapState s) throws CloneNotSupportedException {
+    EWAHCompressedBitmap ans = (EWAHCompressedBitmap) s.bitmap1.clone();
+    ans.not();
+    return ans;
+  }
+
+  @Benchmark
+  public int cardinality(BitmapState s) {
+    return s.bitmap1.cardinality();
+  }
+
+  @Benchmark
+  public boolean get(BitmapState s) {
+    return s.bitmap1.get(s.universe / 3);
+  }
+
+  @Benchmark
+  public int rank(BitmapState s) {
+    return s.bitmap1.rank(s.universe / 3);
+  }
+
+  @Benchmark
+  public void iterator(BitmapState s, Blackhole bh) {
+    for(Iterator<Integer> i = s.bitmap1.iterator(); i.hasNext(); )
+      bh.consume(i.next().intValue());
+  }
+
+  @Benchmark
+  public void intIterator(BitmapState s, Blackhole bh) {
+    for(IntIterator i = s.bitmap1.intIterator(); i.hasNext(); )
+      bh.consume(i.next());
+  }
+
+  @Benchmark
+  public void nextBatch(BitmapState s, Blackhole bh) {
+    int[] batch = new int[256];
+    IntIterator i = s.bitmap1.intIterator();
+    for(int n = i.nextBatch(batch); n > 0; n = i.nextBatch(batch))
+      bh.consume(batch[n - 1]);
+  }
+
+  @Benchmark
+  public Vector<Integer> getPositions(BitmapState s) {
+    return s.bitmap1.getPositions();
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap set(BitmapState s) {
+    return BitmapState.build(s.positions1);
+  }
+
+  @Benchmark
+  public byte[] writeExternal(BitmapState s) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    s.bitmap1.writeExternal(oo);
+    oo.close();
+    return bos.toByteArray();
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap readExternal(BitmapState s) throws IOException {
+    EWAHCompressedBitmap ans = new EWAHCompressedBitmap();
+    ans.readExternal(new ObjectInputStream(new ByteArrayInputStream(s.serialized1)));
+    return ans;
+  }
+
+  @Benchmark
+  public ByteBuffer serialize(BitmapState s) {
+    ByteBuffer out = ByteBuffer.allocate(s.bitmap1.serializedSizeInBytes());
+    s.bitmap1.serialize(out);
+    return out;
+  }
+
+  @Benchmark
+  public EWAHCompressedBitmap deserialize(BitmapState s) throws IOException {
+    EWAHCompressedBitmap ans = new EWAHCompressedBitmap();
+    ans.deserialize(s.compact1.duplicate());
+    return ans;
+  }
+}
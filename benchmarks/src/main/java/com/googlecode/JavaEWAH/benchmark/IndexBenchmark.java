@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH.benchmark;
+
+import com.googlecode.JavaEWAH.BitmapIndexBuilder;
+import com.googlecode.JavaEWAH.EWAHCompressedBitmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a bitmap index over an int column: with BitmapIndexBuilder,
+ * and with one set() per row on a map of bitmaps.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class ColumnState {
+
+    @Param({"16", "10000"})
+    public int distinct;
+
+    @Param({"false", "true"})
+    public boolean sorted;
+
+    @Param({"1048576"})
+    public int rows;
+
+    public int[] column;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Random r = new Random(1);
+      column = new int[rows];
+      for(int k = 0; k < rows; ++k)
+        column[k] = r.nextInt(distinct);
+      if(sorted)
+        Arrays.sort(column);
+    }
+  }
+
+  @Benchmark
+  public Map<Integer, EWAHCompressedBitmap> builder(ColumnState s) {
+    return BitmapIndexBuilder.build(s.column);
+  }
+
+  @Benchmark
+  public Map<Integer, EWAHCompressedBitmap> setPerRow(ColumnState s) {
+    Map<Integer, EWAHCompressedBitmap> answer = new HashMap<Integer, EWAHCompressedBitmap>();
+    for(int k = 0; k < s.column.length; ++k) {
+      EWAHCompressedBitmap b = answer.get(s.column[k]);
+      if(b == null) {
+        b = new EWAHCompressedBitmap();
+        answer.put(s.column[k], b);
+      }
+      b.set(k);
+    }
+    return answer;
+  }
+}
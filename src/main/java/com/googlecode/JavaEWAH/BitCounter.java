@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * A BitmapStorage that only counts the bits it is given, so that
+ * the cardinality of the result of a logical operation can be computed
+ * without building the result. Clean runs are counted arithmetically.
+ */
+public final class BitCounter implements BitmapStorage {
+
+  public int add(long newdata) {
+    count += Long.bitCount(newdata);
+    return 0;
+  }
+
+  public int addStreamOfEmptyWords(boolean v, long number) {
+    if(v) count += number * EWAHCompressedBitmap.wordinbits;
+    return 0;
+  }
+
+  public long addStreamOfDirtyWords(long[] data, long start, long number) {
+    for(int k = (int) start; k < start + number; ++k)
+      count += Long.bitCount(data[k]);
+    return 0;
+  }
+
+  public long addStreamOfNegatedDirtyWords(long[] data, long start, long number) {
+    for(int k = (int) start; k < start + number; ++k)
+      count += Long.bitCount(~data[k]);
+    return 0;
+  }
+
+  public void setSizeInBits(long size) {
+  }
+
+  /**
+   * @return the number of bits counted so far
+   * @throws ArithmeticException if it is 2^31 or more (use getCountAsLong)
+   */
+  public int getCount() {
+    return Math.toIntExact(count);
+  }
+
+  /**
+   * @return the number of bits counted so far, which may be 2^31 or more
+   */
+  public long getCountAsLong() {
+    return count;
+  }
+
+  private long count = 0;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * A BitmapStorage32 that only counts the bits it is given, so that
+ * the cardinality of the result of a logical operation can be computed
+ * without building the result. Clean runs are counted arithmetically.
+ */
+public final class BitCounter32 implements BitmapStorage32 {
+
+  public int add(int newdata) {
+    count += Integer.bitCount(newdata);
+    return 0;
+  }
+
+  public int addStreamOfEmptyWords(boolean v, int number) {
+    if(v) count += (long) number * EWAHCompressedBitmap32.wordinbits;
+    return 0;
+  }
+
+  public int addStreamOfDirtyWords(int[] data, int start, int number) {
+    for(int k = start; k < start + number; ++k)
+      count += Integer.bitCount(data[k]);
+    return 0;
+  }
+
+  public int addStreamOfNegatedDirtyWords(int[] data, int start, int number) {
+    for(int k = start; k < start + number; ++k)
+      count += Integer.bitCount(~data[k]);
+    return 0;
+  }
+
+  public void setSizeInBits(int size) {
+  }
+
+  /**
+   * @return the number of bits counted so far
+   */
+  public int getCount() {
+    return (int) count;
+  }
+
+  private long count = 0;
+}
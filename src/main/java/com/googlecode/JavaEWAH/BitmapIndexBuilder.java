@@ -0,0 +1,237 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a bitmap index over an int column (one bitmap per distinct
+ * value, with bit r set in the bitmap of the value of row r) in a
+ * single pass. The rows are given in order, one at a time (add) or in
+ * blocks (add(int[], int, int)); then build() returns the bitmaps.
+ *
+ * Each value keeps the word it is filling; a word is written to its
+ * bitmap only once it is complete or once the value shows up in a
+ * later word, and the gap is written as one stream of clean words.
+ * A run of rows with the same value is written as a stream of clean
+ * words of ones, so that sorted or clustered columns cost one call per
+ * run rather than one per row. The bitmaps start with a small buffer
+ * and are trimmed at the end.
+ */
+public final class BitmapIndexBuilder {
+
+  public BitmapIndexBuilder() {}
+
+  /**
+   * indexes the next row
+   * @param value the value of the row
+   */
+  public void add(int value) {
+    forValue(value).addRow(nextRow(1));
+  }
+
+  /**
+   * indexes the next count rows, which all have the same value
+   * @param value the value of the rows
+   * @param count how many rows
+   */
+  public void addRun(int value, int count) {
+    if(count < 0)
+      throw new IllegalArgumentException("negative count: " + count);
+    if(count == 0) return;
+    long start = nextRow(count);
+    forValue(value).addRange(start, start + count);
+  }
+
+  /**
+   * indexes the next length rows
+   * @param column the values of the rows
+   * @param start where the rows start in column
+   * @param length how many rows
+   */
+  public void add(int[] column, int start, int length) {
+    int end = start + length;
+    int k = start;
+    while(k < end) {
+      int value = column[k];
+      int runend = k + 1;
+      while((runend < end) && (column[runend] == value))
+        ++runend;
+      if(runend - k == 1)
+        add(value);
+      else
+        addRun(value, runend - k);
+      k = runend;
+    }
+  }
+
+  /**
+   * @return the number of rows indexed so far
+   */
+  public long rows() {
+    return rows;
+  }
+
+  /**
+   * completes the bitmaps: each one has a size in bits equal to the
+   * number of rows. The builder cannot be used afterwards.
+   * @return the bitmap of each value seen
+   */
+  public Map<Integer, EWAHCompressedBitmap> build() {
+    if(built)
+      throw new IllegalStateException("build() was already called");
+    built = true;
+    Map<Integer, EWAHCompressedBitmap> answer = new HashMap<Integer, EWAHCompressedBitmap>(values.size() * 2);
+    for(Map.Entry<Integer, ValueBitmap> e : values.entrySet())
+      answer.put(e.getKey(), e.getValue().finish(rows));
+    return answer;
+  }
+
+  /**
+   * @param column the values of the rows
+   * @return the bitmap of each value in the column
+   */
+  public static Map<Integer, EWAHCompressedBitmap> build(int[] column) {
+    BitmapIndexBuilder builder = new BitmapIndexBuilder();
+    builder.add(column, 0, column.length);
+    return builder.build();
+  }
+
+  private long nextRow(int count) {
+    if(built)
+      throw new IllegalStateException("build() was already called");
+    long answer = rows;
+    rows += count;
+    return answer;
+  }
+
+  private ValueBitmap forValue(int value) {
+    // consecutive rows often have the same value
+    if((last != null) && (lastvalue == value))
+      return last;
+    ValueBitmap answer;
+    if((value >= 0) && (value < densevalues)) {
+      if(value >= dense.length)
+        dense = Arrays.copyOf(dense, Math.min(densevalues, Math.max(value + 1, 2 * dense.length)));
+      answer = dense[value];
+      if(answer == null) {
+        answer = new ValueBitmap();
+        dense[value] = answer;
+        values.put(value, answer);
+      }
+    } else {
+      answer = values.get(value);
+      if(answer == null) {
+        answer = new ValueBitmap();
+        values.put(value, answer);
+      }
+    }
+    last = answer;
+    lastvalue = value;
+    return answer;
+  }
+
+  /**
+   * the bitmap of one value, with the word being filled
+   */
+  static final class ValueBitmap {
+
+    /**
+     * @param row a row after all the rows given so far
+     */
+    void addRow(long row) {
+      long word = row >>> 6;
+      if(word != written)
+        moveTo(word);
+      pending |= 1l << row;
+    }
+
+    /**
+     * @param start the first row, after all the rows given so far
+     * @param end after the last row
+     */
+    void addRange(long start, long end) {
+      long word = start >>> 6;
+      if(word != written)
+        moveTo(word);
+      while(start < end) {
+        long wordstart = written << 6;
+        if((start == wordstart) && (end - start >= EWAHCompressedBitmap.wordinbits)) {
+          long full = (end - start) >>> 6;
+          bitmap.addStreamOfEmptyWords(true, full);
+          written += full;
+          start += full << 6;
+        } else {
+          long stop = Math.min(end, wordstart + EWAHCompressedBitmap.wordinbits);
+          int from = (int) (start - wordstart);
+          int to = (int) (stop - wordstart);
+          pending |= (~0l << from) & (to == EWAHCompressedBitmap.wordinbits ? ~0l : (1l << to) - 1);
+          start = stop;
+          if(to == EWAHCompressedBitmap.wordinbits) {
+            bitmap.add(pending);
+            ++written;
+            pending = 0;
+          }
+        }
+      }
+    }
+
+    /**
+     * writes the word being filled, then clean words up to word
+     */
+    private void moveTo(long word) {
+      if(pending != 0) {
+        bitmap.add(pending);
+        ++written;
+        pending = 0;
+      }
+      if(word > written) {
+        bitmap.addStreamOfEmptyWords(false, word - written);
+        written = word;
+      }
+    }
+
+    EWAHCompressedBitmap finish(long rows) {
+      if(pending != 0) {
+        bitmap.add(pending);
+        ++written;
+        pending = 0;
+      }
+      bitmap.setSizeInBits(rows);
+      bitmap.trim();
+      return bitmap;
+    }
+
+    final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap(initialbuffersize);
+    // the words before this one are in the bitmap
+    long written = 0;
+    // the bits set so far in word number written
+    long pending = 0;
+  }
+
+  // values in [0, densevalues) are looked up in an array rather than hashed
+  static final int densevalues = 1 << 16;
+  static final int initialbuffersize = 4;
+
+  private final Map<Integer, ValueBitmap> values = new HashMap<Integer, ValueBitmap>();
+  private ValueBitmap[] dense = new ValueBitmap[16];
+  private ValueBitmap last = null;
+  private int lastvalue;
+  private long rows = 0;
+  private boolean built = false;
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.Arrays;
+
+/**
+ * What a bitmap, or a set of bitmaps, is made of: words in use against
+ * words allocated, marker words, clean and literal words, and how long
+ * the runs of clean words and of literal words are. Only the marker
+ * words are read, so gathering the statistics of many bitmaps is cheap;
+ * this is meant to find the bitmaps (e.g., the columns of an index) that
+ * take the most memory or compress poorly, and that would gain from
+ * reordering the rows (see RowReordering) or from another encoding.
+ *
+ * The histograms have one entry per power of two: entry k counts the
+ * runs of length 2^k to 2^(k+1)-1.
+ */
+public final class BitmapStatistics {
+
+  private BitmapStatistics() {}
+
+  /**
+   * @param b a bitmap
+   * @return its statistics
+   */
+  public static BitmapStatistics of(EWAHCompressedBitmap b) {
+    BitmapStatistics answer = new BitmapStatistics();
+    answer.add(b);
+    return answer;
+  }
+
+  /**
+   * @param bitmaps bitmaps
+   * @return the statistics of all the bitmaps, added up
+   */
+  public static BitmapStatistics of(Iterable<EWAHCompressedBitmap> bitmaps) {
+    BitmapStatistics answer = new BitmapStatistics();
+    for(EWAHCompressedBitmap b : bitmaps)
+      answer.add(b);
+    return answer;
+  }
+
+  private void add(EWAHCompressedBitmap b) {
+    ++numberofbitmaps;
+    sizeinbits += b.sizeinbits;
+    cardinality += b.cardinality;
+    usedwords += b.actualsizeinwords;
+    allocatedwords += b.buffer.length;
+    EWAHCompressedBitmap.EWAHIterator i = b.getEWAHIterator();
+    while(i.hasNext()) {
+      RunningLengthWord rlw = i.next();
+      ++markerwords;
+      long rl = rlw.getRunningLength();
+      long nlit = rlw.getNumberOfLiteralWords();
+      if(rl > 0) {
+        if(rlw.getRunningBit())
+          cleanonewords += rl;
+        else
+          cleanzerowords += rl;
+        ++runhistogram[63 - Long.numberOfLeadingZeros(rl)];
+      }
+      if(nlit > 0) {
+        literalwords += nlit;
+        ++literalhistogram[63 - Long.numberOfLeadingZeros(nlit)];
+      }
+    }
+  }
+
+  /**
+   * @return how many bitmaps the statistics cover
+   */
+  public int getNumberOfBitmaps() {
+    return numberofbitmaps;
+  }
+
+  /**
+   * @return the size in bits, added up over the bitmaps
+   */
+  public long getSizeInBits() {
+    return sizeinbits;
+  }
+
+  /**
+   * @return the number of bits set, added up over the bitmaps
+   */
+  public long getCardinality() {
+    return cardinality;
+  }
+
+  /**
+   * @return the number of words holding the bitmaps (as sizeInBytes()/8)
+   */
+  public long getUsedWords() {
+    return usedwords;
+  }
+
+  /**
+   * @return the number of words allocated, used or not
+   */
+  public long getAllocatedWords() {
+    return allocatedwords;
+  }
+
+  /**
+   * @return the number of marker words
+   */
+  public long getMarkerWords() {
+    return markerwords;
+  }
+
+  /**
+   * @return the number of clean words of zeroes the marker words stand for
+   */
+  public long getCleanZeroWords() {
+    return cleanzerowords;
+  }
+
+  /**
+   * @return the number of clean words of ones the marker words stand for
+   */
+  public long getCleanOneWords() {
+    return cleanonewords;
+  }
+
+  /**
+   * @return the number of literal words
+   */
+  public long getLiteralWords() {
+    return literalwords;
+  }
+
+  /**
+   * @return how many runs of clean words there are, by length (see above)
+   */
+  public long[] getRunHistogram() {
+    return Arrays.copyOf(runhistogram, runhistogram.length);
+  }
+
+  /**
+   * @return how many runs of literal words there are, by length (see above)
+   */
+  public long[] getLiteralHistogram() {
+    return Arrays.copyOf(literalhistogram, literalhistogram.length);
+  }
+
+  /**
+   * @return the words in use divided by the words of an uncompressed
+   *   bitset of the same size (below 1 when the compression pays off)
+   */
+  public double getCompressionRatio() {
+    long uncompressed = (sizeinbits + EWAHCompressedBitmap.wordinbits - 1) / EWAHCompressedBitmap.wordinbits;
+    return (double) usedwords / Math.max(uncompressed, 1);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder ans = new StringBuilder();
+    ans.append(numberofbitmaps).append(" bitmap(s), ").append(sizeinbits).append(" bits, ")
+        .append(cardinality).append(" set\n");
+    ans.append("words: ").append(usedwords).append(" used, ").append(allocatedwords).append(" allocated, ")
+        .append(markerwords).append(" markers, ").append(literalwords).append(" literal\n");
+    ans.append("clean words: ").append(cleanzerowords).append(" 0x00, ").append(cleanonewords).append(" 1x11\n");
+    ans.append("compression ratio: ").append(getCompressionRatio()).append('\n');
+    appendHistogram(ans, "runs of clean words: ", runhistogram);
+    appendHistogram(ans, "runs of literal words: ", literalhistogram);
+    return ans.toString();
+  }
+
+  private static void appendHistogram(StringBuilder ans, String title, long[] histogram) {
+    ans.append(title);
+    for(int k = 0; k < histogram.length; ++k)
+      if(histogram[k] > 0)
+        ans.append('[').append(1l << k).append(',').append((1l << (k + 1)) - 1).append("]:")
+            .append(histogram[k]).append(' ');
+    ans.append('\n');
+  }
+
+  private int numberofbitmaps = 0;
+  private long sizeinbits = 0;
+  private long cardinality = 0;
+  private long usedwords = 0;
+  private long allocatedwords = 0;
+  private long markerwords = 0;
+  private long cleanzerowords = 0;
+  private long cleanonewords = 0;
+  private long literalwords = 0;
+  private final long[] runhistogram = new long[64];
+  private final long[] literalhistogram = new long[64];
+}
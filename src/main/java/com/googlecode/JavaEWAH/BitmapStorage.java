@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * Where the logical operations write their result, one stream of words
+ * at a time. EWAHCompressedBitmap is the usual implementation; BitCounter
+ * only counts the bits.
+ */
+public interface BitmapStorage {
+
+  /**
+   * adds a 64-bit word
+   *
+   * @param newdata the word
+   * @return the number of words added to the buffer
+   */
+  int add(long newdata);
+
+  /**
+   * adds number clean words made of zeroes (v = false) or ones (v = true)
+   *
+   * @param v v
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  int addStreamOfEmptyWords(boolean v, long number);
+
+  /**
+   * adds number literal words copied from data
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  long addStreamOfDirtyWords(long[] data, long start, long number);
+
+  /**
+   * adds number literal words copied from data, negated
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  long addStreamOfNegatedDirtyWords(long[] data, long start, long number);
+
+  /**
+   * sets the size in bits of the result
+   *
+   * @param size size
+   */
+  void setSizeInBits(long size);
+}
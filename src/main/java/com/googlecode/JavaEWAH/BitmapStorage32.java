@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * Where the logical operations write their result, one stream of words
+ * at a time: the 32-bit counterpart of BitmapStorage.
+ * EWAHCompressedBitmap32 is the usual implementation; BitCounter32 only
+ * counts the bits.
+ */
+public interface BitmapStorage32 {
+
+  /**
+   * adds a 32-bit word
+   *
+   * @param newdata the word
+   * @return the number of words added to the buffer
+   */
+  int add(int newdata);
+
+  /**
+   * adds number clean words made of zeroes (v = false) or ones (v = true)
+   *
+   * @param v v
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  int addStreamOfEmptyWords(boolean v, int number);
+
+  /**
+   * adds number literal words copied from data
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  int addStreamOfDirtyWords(int[] data, int start, int number);
+
+  /**
+   * adds number literal words copied from data, negated
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  int addStreamOfNegatedDirtyWords(int[] data, int start, int number);
+
+  /**
+   * sets the size in bits of the result
+   *
+   * @param size size
+   */
+  void setSizeInBits(int size);
+}
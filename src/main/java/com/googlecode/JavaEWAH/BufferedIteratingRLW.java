@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.nio.LongBuffer;
+
+/**
+ * The lazy result of a logical operation over two cursors (see
+ * IteratorUtil.and(IteratingRLW, IteratingRLW)). The result is computed
+ * in chunks of about chunk words into a small bitmap that is reused, and
+ * read through a cursor over that bitmap; the next chunk is computed when
+ * the cursor is exhausted. A round of the operation stops as soon as the
+ * chunk is full, even within a long run or stretch of literal words, so
+ * memory use does not depend on the size of the operands, however deep
+ * the expression.
+ */
+final class BufferedIteratingRLW implements IteratingRLW {
+
+  static final int chunk = EWAHCompressedBitmap.defaultbuffersize;
+
+  BufferedIteratingRLW(int operation, IteratingRLW i, IteratingRLW j) {
+    this.operation = operation;
+    this.i = i;
+    this.j = j;
+    fill();
+  }
+
+  public boolean next() {
+    if(cursor.next()) return true;
+    fill();
+    return cursor.size() > 0;
+  }
+
+  public long getLiteralWordAt(int index) {
+    return cursor.getLiteralWordAt(index);
+  }
+
+  public int getNumberOfLiteralWords() {
+    return cursor.getNumberOfLiteralWords();
+  }
+
+  public boolean getRunningBit() {
+    return cursor.getRunningBit();
+  }
+
+  public long getRunningLength() {
+    return cursor.getRunningLength();
+  }
+
+  public long size() {
+    return cursor.size();
+  }
+
+  public void discardFirstWords(long x) {
+    while(x > 0) {
+      long size = cursor.size();
+      if(size == 0) break;
+      long todiscard = (x > size) ? size : x;
+      cursor.discardFirstWords(todiscard);
+      x -= todiscard;
+      if(cursor.size() == 0) fill();
+    }
+  }
+
+  void writeLiteralWords(int number, BitmapStorage container, boolean negated) {
+    cursor.writeLiteralWords(number, container, negated);
+  }
+
+  /**
+   * computes the next chunk of the result
+   */
+  private void fill() {
+    output.clear();
+    while((i.size() > 0) && (j.size() > 0) && (output.actualsizeinwords < chunk))
+      IteratorUtil.step(operation, i, j, output, chunk);
+    if((i.size() == 0) || (j.size() == 0)) {
+      IteratingRLW rest = (i.size() > 0) ? i : j;
+      // what is left of one operand once the other is exhausted
+      boolean asempty = (operation == IteratorUtil.AND) || ((operation == IteratorUtil.ANDNOT) && (rest == j));
+      while((rest.size() > 0) && (output.actualsizeinwords < chunk)) {
+        if(asempty) {
+          output.addStreamOfEmptyWords(false, rest.size());
+          rest.discardFirstWords(rest.size());
+        } else {
+          IteratorUtil.discharge(rest, output, rest.size(), chunk);
+        }
+      }
+    }
+    cursor = new IteratingBufferedRunningLengthWord(LongBuffer.wrap(output.buffer, 0, output.actualsizeinwords),
+        output.actualsizeinwords);
+  }
+
+  private final int operation;
+  private final IteratingRLW i;
+  private final IteratingRLW j;
+  // the current chunk of the result, and where we are in it
+  final EWAHCompressedBitmap output = new EWAHCompressedBitmap();
+  private IteratingBufferedRunningLengthWord cursor;
+}
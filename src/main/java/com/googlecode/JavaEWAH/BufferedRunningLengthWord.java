@@ -27,6 +27,22 @@ public class BufferedRunningLengthWord {
   public BufferedRunningLengthWord(long a) {
     val = a;
   }
+  /**
+   * start over with a new marker word, so the same object can be
+   * used over a whole bitmap
+   * @param a the marker word
+   */
+  public void reset(long a) {
+    val = a;
+    dirtywordoffset = 0;
+  }
+  /**
+   * start over with the marker word of a cursor
+   * @param rlw the cursor
+   */
+  public void reset(RunningLengthWord rlw) {
+    reset(rlw.array[rlw.position]);
+  }
   public long getNumberOfLiteralWords() {
     return  val >>> (1+runninglengthbits);
   }
@@ -71,9 +87,15 @@ public class BufferedRunningLengthWord {
     assert old >= x;
     setNumberOfLiteralWords(old - x);
     assert old-x == getNumberOfLiteralWords();
+    dirtywordoffset += x;
   }
 
   public long val;
+  /**
+   * how many of the literal words following the marker have
+   * already been discarded
+   */
+  public int dirtywordoffset = 0;
   public static final int runninglengthbits = 32;
 //		public static int literalbits = 64 - 1 - runninglengthbits;
 //		public static long largestliteralcount = (1l<<literalbits) - 1;
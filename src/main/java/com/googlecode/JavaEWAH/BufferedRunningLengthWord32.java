@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * A copy of a marker word of EWAHCompressedBitmap32 (see
+ * BufferedRunningLengthWord).
+ */
+public class BufferedRunningLengthWord32 {
+
+  public BufferedRunningLengthWord32(RunningLengthWord32 rlw) {
+    val = rlw.array[rlw.position];
+  }
+  public BufferedRunningLengthWord32(int a) {
+    val = a;
+  }
+  /**
+   * start over with a new marker word, so the same object can be
+   * used over a whole bitmap
+   * @param a the marker word
+   */
+  public void reset(int a) {
+    val = a;
+    dirtywordoffset = 0;
+  }
+  /**
+   * start over with the marker word of a cursor
+   * @param rlw the cursor
+   */
+  public void reset(RunningLengthWord32 rlw) {
+    reset(rlw.array[rlw.position]);
+  }
+  public int getNumberOfLiteralWords() {
+    return  val >>> (1+runninglengthbits);
+  }
+  public void setNumberOfLiteralWords(int number) {
+    val |= notrunninglengthplusrunningbit;
+    val &= (number << (runninglengthbits +1) ) |runninglengthplusrunningbit;
+  }
+  public void setRunningBit(boolean b) {
+    if(b) val |= 1;
+    else val &= ~1;
+  }
+  public boolean getRunningBit() {
+    return (val & 1) != 0;
+  }
+  public int getRunningLength() {
+    return (val >>> 1) & largestrunninglengthcount ;
+  }
+  public void setRunningLength(int number) {
+    val |= shiftedlargestrunninglengthcount;
+    val &= (number << 1) | notshiftedlargestrunninglengthcount;
+  }
+
+  public int  size() {
+    return getRunningLength() + getNumberOfLiteralWords();
+  }
+
+  public String toString() {
+    return "running bit = "+getRunningBit() +" running length = "+getRunningLength() + " number of lit. words "+ getNumberOfLiteralWords();
+  }
+
+  public void discardFirstWords(int x) {
+    int rl = getRunningLength() ;
+    if(rl >= x) {
+      setRunningLength(rl - x);
+      assert getRunningLength() == rl-x;
+      return;
+    }
+    x -= rl;
+    setRunningLength(0);
+    assert getRunningLength() == 0;
+    int old = getNumberOfLiteralWords() ;
+    assert old >= x;
+    setNumberOfLiteralWords(old - x);
+    assert old-x == getNumberOfLiteralWords();
+    dirtywordoffset += x;
+  }
+
+  public int val;
+  /**
+   * how many of the literal words following the marker have
+   * already been discarded
+   */
+  public int dirtywordoffset = 0;
+  public static final int runninglengthbits = 16;
+//		public static int literalbits = 32 - 1 - runninglengthbits;
+//		public static int largestliteralcount = (1<<literalbits) - 1;
+  public static final int largestrunninglengthcount = (1<<runninglengthbits)-1;
+  public static final int shiftedlargestrunninglengthcount = largestrunninglengthcount<<1;
+  public static final int notshiftedlargestrunninglengthcount = ~shiftedlargestrunninglengthcount;
+  public static final int runninglengthplusrunningbit = (1<<(runninglengthbits+1)) - 1;
+  public static final int notrunninglengthplusrunningbit =~runninglengthplusrunningbit;
+//		public static int notlargestrunninglengthcount =~largestrunninglengthcount;
+}
\ No newline at end of file
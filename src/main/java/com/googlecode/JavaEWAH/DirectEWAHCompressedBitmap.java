@@ -0,0 +1,443 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A bitmap built like EWAHCompressedBitmap (set, add, addStreamOfEmptyWords...)
+ * but whose words live off the heap, in a direct ByteBuffer: large
+ * indexes then cost the garbage collector nothing to trace or copy.
+ * The words are laid out as in EWAHCompressedBitmap.buffer, so the
+ * logical operations are those of IteratorUtil, over the cursor
+ * given by getIteratingRLW(); and, or, xor and andNot put their result
+ * in a new off-heap bitmap.
+ *
+ * The memory is given back by close(); the bitmap cannot be used
+ * afterwards. (On Java 8, close() only drops the buffer, which is then
+ * freed when it is collected.) The cursors and iterators taken before
+ * check that the bitmap is open before each read, and throw an
+ * IllegalStateException once it is closed; close() must not run while
+ * another thread reads the bitmap. When the bitmap grows, its old buffer
+ * is left to the garbage collector, so that a cursor taken before keeps
+ * reading the words as they were.
+ *
+ * A ByteBuffer holds at most 2^31-1 bytes, so one bitmap holds at most
+ * maxsizeinwords = Integer.MAX_VALUE / 8 compressed words (about 2 GB);
+ * larger indexes should be split over several bitmaps. Growing past
+ * this limit throws an IllegalStateException.
+ */
+public final class DirectEWAHCompressedBitmap implements BitmapStorage, Closeable {
+
+  public DirectEWAHCompressedBitmap() {
+    this(EWAHCompressedBitmap.defaultbuffersize);
+  }
+
+  /**
+   * @param buffersize the initial capacity, in words (at most
+   *   maxsizeinwords)
+   */
+  public DirectEWAHCompressedBitmap(int buffersize) {
+    if(buffersize > maxsizeinwords)
+      throw new IllegalArgumentException("an off-heap bitmap holds at most " + maxsizeinwords + " words: " + buffersize);
+    allocate(Math.max(buffersize, 1));
+  }
+
+  /**
+   * @param b a bitmap on the heap
+   * @return an off-heap copy
+   */
+  public static DirectEWAHCompressedBitmap copyOf(EWAHCompressedBitmap b) {
+    DirectEWAHCompressedBitmap answer = new DirectEWAHCompressedBitmap(b.sizeInBytes() / 8);
+    IteratorUtil.materialize(b.getIteratingRLW(), answer);
+    answer.setSizeInBits(b.sizeInBitsAsLong());
+    return answer;
+  }
+
+  /**
+   * set the bit at position i to true, the bits must be set in
+   * increasing order
+   * @param i the position of the bit
+   */
+  public void set(long i) {
+    if(i < sizeinbits)
+      throw new IllegalArgumentException("the bits must be set in increasing order: " + i);
+    checkOpen();
+    if((sizeinbits % wordinbits) != 0) {
+      long possiblesizeinbits = (sizeinbits / wordinbits) * wordinbits + wordinbits;
+      if(possiblesizeinbits < i + 1)
+        sizeinbits = possiblesizeinbits;
+    }
+    addStreamOfEmptyWords(false, (i / wordinbits) - sizeinbits / wordinbits);
+    int bittoflip = (int) (i - (sizeinbits / wordinbits * wordinbits));
+    if((rlw.getNumberOfLiteralWords() == 0) || ((sizeinbits - 1) / wordinbits < i / wordinbits)) {
+      addLiteralWord(1l << bittoflip);
+    } else {
+      long last = words.get(actualsizeinwords - 1) | (1l << bittoflip);
+      if(last == ~0l) {
+        // the last literal word becomes a clean word
+        --actualsizeinwords;
+        rlw.setNumberOfLiteralWords(rlw.getNumberOfLiteralWords() - 1);
+        putMarker();
+        addEmptyWord(true);
+      } else {
+        words.put(actualsizeinwords - 1, last);
+      }
+    }
+    sizeinbits = i + 1;
+    ++cardinality;
+  }
+
+  /**
+   * @param i the position of a bit
+   * @return whether the bit is set (the marker words are read in turn,
+   *   so this takes time linear in the number of marker words)
+   */
+  public boolean get(long i) {
+    if((i < 0) || (i >= sizeinbits)) return false;
+    long word = i / wordinbits;
+    IteratingRLW c = getIteratingRLW();
+    while(c.size() > 0) {
+      long rl = c.getRunningLength();
+      if(word < rl)
+        return c.getRunningBit();
+      word -= rl;
+      int nlit = c.getNumberOfLiteralWords();
+      if(word < nlit)
+        return (c.getLiteralWordAt((int) word) & (1l << (i % wordinbits))) != 0;
+      word -= nlit;
+      c.discardFirstWords(c.size());
+    }
+    return false;
+  }
+
+  public int add(long newdata) {
+    checkOpen();
+    sizeinbits += wordinbits;
+    cardinality += Long.bitCount(newdata);
+    if(newdata == 0)
+      return addEmptyWord(false);
+    else if(newdata == ~0l)
+      return addEmptyWord(true);
+    else
+      return addLiteralWord(newdata);
+  }
+
+  public int addStreamOfEmptyWords(boolean v, long number) {
+    if(number == 0) return 0;
+    checkOpen();
+    boolean noliteralword = (rlw.getNumberOfLiteralWords() == 0);
+    long runlen = rlw.getRunningLength();
+    if(noliteralword && (runlen == 0))
+      rlw.setRunningBit(v);
+    int wordsadded = 0;
+    if(!(noliteralword && (rlw.getRunningBit() == v)
+        && (runlen < RunningLengthWord.largestrunninglengthcount))) {
+      newMarker();
+      rlw.setRunningBit(v);
+      runlen = 0;
+      ++wordsadded;
+    }
+    long whatwecanadd = Math.min(number, RunningLengthWord.largestrunninglengthcount - runlen);
+    rlw.setRunningLength(runlen + whatwecanadd);
+    putMarker();
+    sizeinbits += whatwecanadd * wordinbits;
+    if(v) cardinality += whatwecanadd * wordinbits;
+    if(number - whatwecanadd > 0)
+      wordsadded += addStreamOfEmptyWords(v, number - whatwecanadd);
+    return wordsadded;
+  }
+
+  public long addStreamOfDirtyWords(long[] data, long start, long number) {
+    return addStreamOfDirtyWords(data, start, number, false);
+  }
+
+  public long addStreamOfNegatedDirtyWords(long[] data, long start, long number) {
+    return addStreamOfDirtyWords(data, start, number, true);
+  }
+
+  public void setSizeInBits(long size) {
+    sizeinbits = size;
+  }
+
+  /**
+   * @return a cursor over the compressed words, for IteratorUtil (it
+   *   should not be used once the bitmap is modified)
+   */
+  public IteratingRLW getIteratingRLW() {
+    checkOpen();
+    return new IteratingBufferedRunningLengthWord(words, actualsizeinwords, this);
+  }
+
+  public DirectEWAHCompressedBitmap and(DirectEWAHCompressedBitmap a) {
+    DirectEWAHCompressedBitmap container = new DirectEWAHCompressedBitmap(Math.min(actualsizeinwords, a.actualsizeinwords));
+    IteratorUtil.and(getIteratingRLW(), a.getIteratingRLW(), container);
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+    return container;
+  }
+
+  public DirectEWAHCompressedBitmap or(DirectEWAHCompressedBitmap a) {
+    DirectEWAHCompressedBitmap container = new DirectEWAHCompressedBitmap(Math.max(actualsizeinwords, a.actualsizeinwords));
+    IteratorUtil.or(getIteratingRLW(), a.getIteratingRLW(), container);
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+    return container;
+  }
+
+  public DirectEWAHCompressedBitmap xor(DirectEWAHCompressedBitmap a) {
+    DirectEWAHCompressedBitmap container = new DirectEWAHCompressedBitmap(Math.max(actualsizeinwords, a.actualsizeinwords));
+    IteratorUtil.xor(getIteratingRLW(), a.getIteratingRLW(), container);
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+    return container;
+  }
+
+  public DirectEWAHCompressedBitmap andNot(DirectEWAHCompressedBitmap a) {
+    DirectEWAHCompressedBitmap container = new DirectEWAHCompressedBitmap(actualsizeinwords);
+    IteratorUtil.andNot(getIteratingRLW(), a.getIteratingRLW(), container);
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+    return container;
+  }
+
+  /**
+   * reports the number of bits set (maintained as the bitmap is built)
+   * @return cardinality
+   * @throws ArithmeticException if 2^31 bits or more are set
+   *   (use cardinalityAsLong)
+   */
+  public int cardinality() {
+    return Math.toIntExact(cardinality);
+  }
+
+  /**
+   * @return the number of bits set, which may be 2^31 or more
+   */
+  public long cardinalityAsLong() {
+    return cardinality;
+  }
+
+  /**
+   * iterate over the positions of the true values.
+   * @return iterator
+   */
+  public IntIterator intIterator() {
+    return new IntIteratorOverIteratingRLW(getIteratingRLW());
+  }
+
+  /**
+   * copies the bitmap to the heap
+   * @return a (mutable) copy
+   */
+  public EWAHCompressedBitmap toEWAHCompressedBitmap() {
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(actualsizeinwords);
+    IteratorUtil.materialize(getIteratingRLW(), container);
+    container.setSizeInBits(sizeinbits);
+    return container;
+  }
+
+  /**
+   * @return the size in bits
+   * @throws ArithmeticException if the bitmap is longer than 2^31-1 bits
+   *   (use sizeInBitsAsLong)
+   */
+  public int sizeInBits() {
+    return Math.toIntExact(sizeinbits);
+  }
+
+  /**
+   * @return the size in bits, which may be more than 2^31-1
+   */
+  public long sizeInBitsAsLong() {
+    return sizeinbits;
+  }
+
+  /**
+   * @return the number of bytes of (off-heap) memory used by the words
+   */
+  public int sizeInBytes() {
+    return actualsizeinwords * 8;
+  }
+
+  /**
+   * gives the off-heap memory back; the bitmap, and the cursors and
+   * iterators taken from it, cannot be used afterwards
+   */
+  public void close() {
+    if(bytes == null) return;
+    free(bytes);
+    bytes = null;
+    words = null;
+  }
+
+  @Override
+  public String toString() {
+    return "DirectEWAHCompressedBitmap, size in words = " + actualsizeinwords
+        + ((bytes == null) ? " (closed)" : "");
+  }
+
+  private int addEmptyWord(boolean v) {
+    boolean noliteralword = (rlw.getNumberOfLiteralWords() == 0);
+    long runlen = rlw.getRunningLength();
+    if(noliteralword && (runlen == 0))
+      rlw.setRunningBit(v);
+    if(noliteralword && (rlw.getRunningBit() == v)
+        && (runlen < RunningLengthWord.largestrunninglengthcount)) {
+      rlw.setRunningLength(runlen + 1);
+      putMarker();
+      return 0;
+    }
+    newMarker();
+    rlw.setRunningBit(v);
+    rlw.setRunningLength(1);
+    putMarker();
+    return 1;
+  }
+
+  private int addLiteralWord(long newdata) {
+    long numbersofar = rlw.getNumberOfLiteralWords();
+    if(numbersofar >= RunningLengthWord.largestliteralcount) {
+      newMarker();
+      rlw.setNumberOfLiteralWords(1);
+      putMarker();
+      pushBack(newdata);
+      return 2;
+    }
+    rlw.setNumberOfLiteralWords(numbersofar + 1);
+    putMarker();
+    pushBack(newdata);
+    return 1;
+  }
+
+  private long addStreamOfDirtyWords(long[] data, long start, long number, boolean negated) {
+    if(number == 0) return 0;
+    checkOpen();
+    long numberofliteralwords = rlw.getNumberOfLiteralWords();
+    long whatwecanadd = Math.min(number, RunningLengthWord.largestliteralcount - numberofliteralwords);
+    rlw.setNumberOfLiteralWords(numberofliteralwords + whatwecanadd);
+    putMarker();
+    reserve((int) whatwecanadd);
+    for(int k = 0; k < whatwecanadd; ++k) {
+      long w = negated ? ~data[(int) start + k] : data[(int) start + k];
+      words.put(actualsizeinwords + k, w);
+      cardinality += Long.bitCount(w);
+    }
+    actualsizeinwords += (int) whatwecanadd;
+    sizeinbits += whatwecanadd * wordinbits;
+    long wordsadded = whatwecanadd;
+    if(number - whatwecanadd > 0) {
+      newMarker();
+      ++wordsadded;
+      wordsadded += addStreamOfDirtyWords(data, start + whatwecanadd, number - whatwecanadd, negated);
+    }
+    return wordsadded;
+  }
+
+  /**
+   * starts a new (empty) marker word after the last word
+   */
+  private void newMarker() {
+    pushBack(0);
+    rlwposition = actualsizeinwords - 1;
+    rlw.reset(0);
+  }
+
+  /**
+   * writes the current marker word back to the buffer
+   */
+  private void putMarker() {
+    words.put(rlwposition, rlw.val);
+  }
+
+  private void pushBack(long data) {
+    reserve(1);
+    words.put(actualsizeinwords++, data);
+  }
+
+  /**
+   * grows the buffer so that number more words fit
+   */
+  private void reserve(int number) {
+    int capacity = words.capacity();
+    long needed = (long) actualsizeinwords + number;
+    if(needed <= capacity) return;
+    if(needed > maxsizeinwords)
+      throw new IllegalStateException("an off-heap bitmap holds at most " + maxsizeinwords
+          + " words (the size limit of a ByteBuffer), " + needed + " are needed");
+    LongBuffer oldwords = words.duplicate();
+    allocate((int) Math.min(Math.max(2l * capacity, needed), maxsizeinwords));
+    oldwords.position(0);
+    oldwords.limit(actualsizeinwords);
+    words.put(oldwords);
+    words.position(0);
+    // the old buffer is not freed: cursors may still read it
+  }
+
+  private void allocate(int sizeinwords) {
+    bytes = ByteBuffer.allocateDirect(sizeinwords * 8).order(ByteOrder.nativeOrder());
+    words = bytes.asLongBuffer();
+  }
+
+  void checkOpen() {
+    if(bytes == null)
+      throw new IllegalStateException("the bitmap was closed");
+  }
+
+  /**
+   * frees a direct buffer right away when the JVM lets us
+   * (sun.misc.Unsafe.invokeCleaner, Java 9 and up)
+   */
+  private static void free(ByteBuffer b) {
+    if(invokecleaner == null) return;
+    try {
+      invokecleaner.invoke(unsafe, b);
+    } catch (Exception e) {
+      // the buffer is freed once collected
+    }
+  }
+
+  private static final Object unsafe;
+  private static final Method invokecleaner;
+  static {
+    Object u = null;
+    Method m = null;
+    try {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      Field f = c.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      u = f.get(null);
+      m = c.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (Exception e) {
+      // Java 8, or no access to sun.misc.Unsafe
+      m = null;
+    }
+    unsafe = u;
+    invokecleaner = m;
+  }
+
+  public static final int wordinbits = EWAHCompressedBitmap.wordinbits;
+  /** the most words a bitmap holds: its ByteBuffer is at most 2^31-1 bytes */
+  public static final int maxsizeinwords = Integer.MAX_VALUE / 8;
+  private ByteBuffer bytes;
+  private LongBuffer words;
+  private int actualsizeinwords = 1;
+  private long sizeinbits = 0;
+  private long cardinality = 0;
+  private int rlwposition = 0;
+  private final BufferedRunningLengthWord rlw = new BufferedRunningLengthWord(0);
+}
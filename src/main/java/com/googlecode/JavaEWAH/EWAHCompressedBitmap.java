@@ -48,38 +48,206 @@ package com.googlecode.JavaEWAH;
  *    schemes, like WAH are covered by patents.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.Vector;
 
-public class EWAHCompressedBitmap implements Cloneable, Externalizable {
+public class EWAHCompressedBitmap implements Cloneable, Externalizable, BitmapStorage {
 
-  public EWAHCompressedBitmap () {}
+  public EWAHCompressedBitmap () {
+    this(defaultbuffersize);
+  }
+
+  /**
+   * @param buffersize the initial capacity of the buffer, in words: when
+   *   many small bitmaps are built, this can be much less than the default
+   *   (the buffer grows as needed)
+   */
+  public EWAHCompressedBitmap(int buffersize) {
+    if(buffersize < 1)
+      throw new IllegalArgumentException("the buffer needs at least one word");
+    buffer = new long[buffersize];
+    rlw = new RunningLengthWord(buffer, 0);
+  }
 
   EWAHIterator getEWAHIterator() {
     return new EWAHIterator(buffer,actualsizeinwords);
   }
 
+  /**
+   * @return a cursor over the compressed words, for IteratorUtil
+   */
+  public IteratingRLW getIteratingRLW() {
+    return new IteratingBufferedRunningLengthWord(LongBuffer.wrap(buffer, 0, actualsizeinwords), actualsizeinwords);
+  }
+
+  /**
+   * computes the bits of this bitmap that are not set in a, in one pass
+   * (neither a nor this bitmap is modified)
+   * @param a the bitmap to subtract
+   * @return this AND NOT a
+   */
   public EWAHCompressedBitmap andNot(EWAHCompressedBitmap a) {
-    try{
-      EWAHCompressedBitmap nota = (EWAHCompressedBitmap) a.clone();
-      nota.not();
-      return and(nota);
-    } catch (CloneNotSupportedException cnse) {
-      throw new RuntimeException();
+    long start = Instrumentation.start();
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(actualsizeinwords);
+    andNotToContainer(a, container);
+    Instrumentation.done(Instrumentation.ANDNOT, start, actualsizeinwords + a.actualsizeinwords, container, null);
+    return container;
+  }
+
+  /**
+   * computes this AND NOT a into a container, which is emptied first but keeps
+   * its buffer: once the buffer is large enough, no array is allocated
+   * @param a the other bitmap
+   * @param container where the result goes (neither a nor this bitmap)
+   * @return the container
+   */
+  public EWAHCompressedBitmap andNotInto(EWAHCompressedBitmap a, EWAHCompressedBitmap container) {
+    long start = Instrumentation.start();
+    long[] previousbuffer = container.buffer;
+    clearContainer(a, container);
+    andNotToContainer(a, container);
+    Instrumentation.done(Instrumentation.ANDNOT, start, actualsizeinwords + a.actualsizeinwords, container, previousbuffer);
+    return container;
+  }
+
+  /**
+   * computes this AND NOT a and writes the result to a container
+   * (e.g., a BitCounter if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void andNotToContainer(EWAHCompressedBitmap a, BitmapStorage container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeinbits);
+      return;
     }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord rlwi = new BufferedRunningLengthWord(i.next());
+    BufferedRunningLengthWord rlwj = new BufferedRunningLengthWord(j.next());
+    while (true) {
+      // i walks over a (the negated operand), j over this bitmap
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      long preyrl  = prey.getRunningLength();
+      if(prey.getRunningBit() == i_is_prey) {
+        // either a stream of 1x11 in a or a stream of 0x00 in this bitmap
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+        container.addStreamOfEmptyWords(false, preyrl);
+      } else {
+        long predatorrl  = predator.getRunningLength();
+        long tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        container.addStreamOfEmptyWords(predator.getRunningBit() == i_is_prey, tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        if(i_is_prey)
+          container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        else
+          container.addStreamOfNegatedDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+      }
+      long predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(predator.getRunningBit() != i_is_prey) {
+          // either a stream of 1x11 in a or a stream of 0x00 in this bitmap
+          container.addStreamOfEmptyWords(false, tobediscarded);
+        } else {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          if(i_is_prey)
+            container.addStreamOfNegatedDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+          else
+            container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to AND NOT the dirty words
+      long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        long[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        if(nbre_dirty_prey < kernelthreshold) {
+          for(int k = 0; k<nbre_dirty_prey;++k) {
+            container.add(jb[dw_j+k] & ~ib[dw_i+k]);
+          }
+        } else {
+          addCombined(IteratorUtil.ANDNOT, jb, dw_j, ib, dw_i, (int) nbre_dirty_prey, container);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          dischargeAsEmpty(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
   }
 
   public EWAHCompressedBitmap and(EWAHCompressedBitmap a) {
-    EWAHCompressedBitmap container  = new EWAHCompressedBitmap();
+    long start = Instrumentation.start();
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(Math.min(actualsizeinwords, a.actualsizeinwords));
+    andToContainer(a, container);
+    Instrumentation.done(Instrumentation.AND, start, actualsizeinwords + a.actualsizeinwords, container, null);
+    return container;
+  }
+
+  /**
+   * computes this AND a into a container, which is emptied first but keeps
+   * its buffer: once the buffer is large enough, no array is allocated
+   * @param a the other bitmap
+   * @param container where the result goes (neither a nor this bitmap)
+   * @return the container
+   */
+  public EWAHCompressedBitmap andInto(EWAHCompressedBitmap a, EWAHCompressedBitmap container) {
+    long start = Instrumentation.start();
+    long[] previousbuffer = container.buffer;
+    clearContainer(a, container);
+    andToContainer(a, container);
+    Instrumentation.done(Instrumentation.AND, start, actualsizeinwords + a.actualsizeinwords, container, previousbuffer);
+    return container;
+  }
+
+  /**
+   * computes this AND a and writes the result to a container
+   * (e.g., a BitCounter if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void andToContainer(EWAHCompressedBitmap a, BitmapStorage container) {
     EWAHIterator i = a.getEWAHIterator();
     EWAHIterator j = getEWAHIterator();
     if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
-      container.setSizeInBits(sizeInBits());
-      return container;
+      container.setSizeInBits(sizeinbits);
+      return;
     }
     // at this point, this should be safe:
     BufferedRunningLengthWord rlwi = new BufferedRunningLengthWord(i.next());
@@ -88,6 +256,8 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       boolean i_is_prey = rlwi.size()<rlwj.size();
       BufferedRunningLengthWord prey = i_is_prey ? rlwi: rlwj;
       BufferedRunningLengthWord predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
       if(!prey.getRunningBit()) {
         long preyrl = prey.getRunningLength();
         predator.discardFirstWords(preyrl);
@@ -99,71 +269,117 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
         long preyrl  = prey.getRunningLength();
         long tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
         container.addStreamOfEmptyWords(predator.getRunningBit(), tobediscarded);
-        int  dw_predator  = (i_is_prey ? j.dirtyWords(): i.dirtyWords());
-        container.addStreamOfDirtyWords(buffer, dw_predator, preyrl - tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
         predator.discardFirstWords(preyrl);
         prey.discardFirstWords(preyrl);
       }
       long predatorrl = predator.getRunningLength();
       if(predatorrl>0){
+        long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
         if(!predator.getRunningBit()) {
-          long nbre_dirty_prey = prey.getNumberOfLiteralWords();
-          long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
-          predator.discardFirstWords(tobediscarded);
-          prey.discardFirstWords(tobediscarded);
           container.addStreamOfEmptyWords(false, tobediscarded);
         } else {
-          long nbre_dirty_prey = prey.getNumberOfLiteralWords();
-          int dw_prey = i_is_prey ? i.dirtyWords(): j.dirtyWords();
-          long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
-          //nbre_dirty_prey -= tobediscarded;
-          container.addStreamOfDirtyWords(buffer, dw_prey, tobediscarded);
-          //dw_prey += tobediscarded;
-          predator.discardFirstWords(tobediscarded);
-          prey.discardFirstWords(tobediscarded);
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
         }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
       }
       // all that is left to do now is to AND the dirty words
       long nbre_dirty_prey = prey.getNumberOfLiteralWords();
       if(nbre_dirty_prey > 0) {
-        for(int k = 0; k<nbre_dirty_prey;++k) {
-          container.add(i.buffer()[i.dirtyWords()+k] & j.buffer()[i.dirtyWords()+k]);
+        long[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        if(nbre_dirty_prey < kernelthreshold) {
+          for(int k = 0; k<nbre_dirty_prey;++k) {
+            container.add(ib[dw_i+k] & jb[dw_j+k]);
+          }
+        } else {
+          addCombined(IteratorUtil.AND, ib, dw_i, jb, dw_j, (int) nbre_dirty_prey, container);
         }
         predator.discardFirstWords(nbre_dirty_prey);
       }
       if( i_is_prey ) {
-        if(!i.hasNext()) break;
-        rlwi = new BufferedRunningLengthWord( i.next() );
+        if(!i.hasNext()) {
+          dischargeAsEmpty(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
       } else {
-        if(!j.hasNext()) break;
-        rlwj = new BufferedRunningLengthWord(j.next());
+        if(!j.hasNext()) {
+          dischargeAsEmpty(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
       }
     }
-    container.setSizeInBits(sizeInBits());
-    return container;
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+  }
+
+  private void clearContainer(EWAHCompressedBitmap a, EWAHCompressedBitmap container) {
+    if((container == this) || (container == a))
+      throw new IllegalArgumentException("the container cannot be one of the operands");
+    container.clear();
   }
 
   /*
      * return a negated version of this bitmap
      */
   public void not() {
+    long start = Instrumentation.start();
+    skipindex = null;
+    ++modcount;
     EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
+    long words = 0;
     while(i.hasNext()) {
       RunningLengthWord rlw = i.next();
+      words += rlw.size();
       rlw.setRunningBit(! rlw.getRunningBit());
-      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
-        i.buffer()[i.dirtyWords()+j] = ~i.buffer()[i.dirtyWords()+j];
-      }
+      WordKernel.instance.not(i.buffer(), i.dirtyWords(), (int) rlw.getNumberOfLiteralWords());
     }
+    cardinality = words * wordinbits - cardinality;
+    Instrumentation.done(Instrumentation.NOT, start, actualsizeinwords, this, buffer);
   }
 
   public EWAHCompressedBitmap or(EWAHCompressedBitmap a) {
-    EWAHCompressedBitmap container  = new EWAHCompressedBitmap();
+    long start = Instrumentation.start();
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(Math.max(actualsizeinwords, a.actualsizeinwords));
+    orToContainer(a, container);
+    Instrumentation.done(Instrumentation.OR, start, actualsizeinwords + a.actualsizeinwords, container, null);
+    return container;
+  }
+
+  /**
+   * computes this OR a into a container, which is emptied first but keeps
+   * its buffer: once the buffer is large enough, no array is allocated
+   * @param a the other bitmap
+   * @param container where the result goes (neither a nor this bitmap)
+   * @return the container
+   */
+  public EWAHCompressedBitmap orInto(EWAHCompressedBitmap a, EWAHCompressedBitmap container) {
+    long start = Instrumentation.start();
+    long[] previousbuffer = container.buffer;
+    clearContainer(a, container);
+    orToContainer(a, container);
+    Instrumentation.done(Instrumentation.OR, start, actualsizeinwords + a.actualsizeinwords, container, previousbuffer);
+    return container;
+  }
+
+  /**
+   * computes this OR a and writes the result to a container
+   * (e.g., a BitCounter if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void orToContainer(EWAHCompressedBitmap a, BitmapStorage container) {
     EWAHIterator i = a.getEWAHIterator();
     EWAHIterator j = getEWAHIterator();
     if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
-      container.setSizeInBits(sizeInBits());
-      return container;
+      container.setSizeInBits(sizeinbits);
+      return;
     }
     // at this point, this should be safe:
     BufferedRunningLengthWord rlwi = new BufferedRunningLengthWord(i.next());
@@ -173,13 +389,15 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       boolean i_is_prey = rlwi.size()<rlwj.size();
       BufferedRunningLengthWord prey = i_is_prey ? rlwi: rlwj;
       BufferedRunningLengthWord predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
       if(!prey.getRunningBit()) {
         long predatorrl = predator.getRunningLength();
         long preyrl = prey.getRunningLength();
         long  tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
         container.addStreamOfEmptyWords(predator.getRunningBit(), tobediscarded);
-        long dw_predator = i_is_prey ? j.dirtyWords(): i.dirtyWords();
-        container.addStreamOfDirtyWords(i_is_prey ? j.buffer(): i.buffer(), dw_predator, preyrl - tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
         predator.discardFirstWords(preyrl);
         prey.discardFirstWords(preyrl);
       } else {
@@ -191,42 +409,622 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       }
       long predatorrl = predator.getRunningLength();
       if(predatorrl>0){
+        long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
         if(!predator.getRunningBit()) {
-          long nbre_dirty_prey = prey.getNumberOfLiteralWords();
-          long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
-          long dw_prey = i_is_prey ? i.dirtyWords(): j.dirtyWords();
-          predator.discardFirstWords(tobediscarded);
-          prey.discardFirstWords(tobediscarded);
-          container.addStreamOfDirtyWords(i_is_prey ? i.buffer(): j.buffer(),dw_prey, tobediscarded);
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
         } else {
-          long nbre_dirty_prey = prey.getNumberOfLiteralWords();
-          int dw_prey = i_is_prey ? i.dirtyWords(): j.dirtyWords();
-          long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
-          //nbre_dirty_prey -= tobediscarded;
           container.addStreamOfEmptyWords(true, tobediscarded);
-          //dw_prey += tobediscarded;
-          predator.discardFirstWords(tobediscarded);
-          prey.discardFirstWords(tobediscarded);
         }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to OR the dirty words
+      long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        long[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        if(nbre_dirty_prey < kernelthreshold) {
+          for(int k = 0; k< nbre_dirty_prey;++k) {
+            container.add(ib[dw_i+k] | jb[dw_j+k]);
+          }
+        } else {
+          addCombined(IteratorUtil.OR, ib, dw_i, jb, dw_j, (int) nbre_dirty_prey, container);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          discharge(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+  }
+
+  /**
+   * computes the exclusive or of the two bitmaps, in one pass
+   * @param a the other bitmap
+   * @return this XOR a
+   */
+  public EWAHCompressedBitmap xor(EWAHCompressedBitmap a) {
+    long start = Instrumentation.start();
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(Math.max(actualsizeinwords, a.actualsizeinwords));
+    xorToContainer(a, container);
+    Instrumentation.done(Instrumentation.XOR, start, actualsizeinwords + a.actualsizeinwords, container, null);
+    return container;
+  }
+
+  /**
+   * computes this XOR a into a container, which is emptied first but keeps
+   * its buffer: once the buffer is large enough, no array is allocated
+   * @param a the other bitmap
+   * @param container where the result goes (neither a nor this bitmap)
+   * @return the container
+   */
+  public EWAHCompressedBitmap xorInto(EWAHCompressedBitmap a, EWAHCompressedBitmap container) {
+    long start = Instrumentation.start();
+    long[] previousbuffer = container.buffer;
+    clearContainer(a, container);
+    xorToContainer(a, container);
+    Instrumentation.done(Instrumentation.XOR, start, actualsizeinwords + a.actualsizeinwords, container, previousbuffer);
+    return container;
+  }
+
+  /**
+   * computes this XOR a and writes the result to a container
+   * (e.g., a BitCounter if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void xorToContainer(EWAHCompressedBitmap a, BitmapStorage container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeinbits);
+      return;
+    }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord rlwi = new BufferedRunningLengthWord(i.next());
+    BufferedRunningLengthWord rlwj = new BufferedRunningLengthWord(j.next());
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      long predatorrl = predator.getRunningLength();
+      long preyrl = prey.getRunningLength();
+      long tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+      container.addStreamOfEmptyWords(predator.getRunningBit() != prey.getRunningBit(), tobediscarded);
+      int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+      if(prey.getRunningBit())
+        container.addStreamOfNegatedDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+      else
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+      predator.discardFirstWords(preyrl);
+      prey.discardFirstWords(preyrl);
+      predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+        if(predator.getRunningBit())
+          container.addStreamOfNegatedDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        else
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to XOR the dirty words
+      long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        long[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        if(nbre_dirty_prey < kernelthreshold) {
+          for(int k = 0; k< nbre_dirty_prey;++k) {
+            container.add(ib[dw_i+k] ^ jb[dw_j+k]);
+          }
+        } else {
+          addCombined(IteratorUtil.XOR, ib, dw_i, jb, dw_j, (int) nbre_dirty_prey, container);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          discharge(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeinbits, a.sizeinbits));
+  }
+
+  /**
+   * computes the number of bits set in this AND a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the intersection
+   * @throws ArithmeticException if it is 2^31 or more
+   *   (use andCardinalityAsLong)
+   */
+  public int andCardinality(EWAHCompressedBitmap a) {
+    return Math.toIntExact(andCardinalityAsLong(a));
+  }
+
+  /**
+   * same as andCardinality, for bitmaps with 2^31 set bits or more
+   * @param a the other bitmap
+   * @return the cardinality of the intersection
+   */
+  public long andCardinalityAsLong(EWAHCompressedBitmap a) {
+    BitCounter counter = new BitCounter();
+    andToContainer(a, counter);
+    return counter.getCountAsLong();
+  }
+
+  /**
+   * computes the number of bits set in this OR a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the union
+   * @throws ArithmeticException if it is 2^31 or more
+   *   (use orCardinalityAsLong)
+   */
+  public int orCardinality(EWAHCompressedBitmap a) {
+    return Math.toIntExact(orCardinalityAsLong(a));
+  }
+
+  /**
+   * same as orCardinality, for bitmaps with 2^31 set bits or more
+   * @param a the other bitmap
+   * @return the cardinality of the union
+   */
+  public long orCardinalityAsLong(EWAHCompressedBitmap a) {
+    BitCounter counter = new BitCounter();
+    orToContainer(a, counter);
+    return counter.getCountAsLong();
+  }
+
+  /**
+   * computes the number of bits set in this XOR a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the symmetric difference
+   * @throws ArithmeticException if it is 2^31 or more
+   *   (use xorCardinalityAsLong)
+   */
+  public int xorCardinality(EWAHCompressedBitmap a) {
+    return Math.toIntExact(xorCardinalityAsLong(a));
+  }
+
+  /**
+   * same as xorCardinality, for bitmaps with 2^31 set bits or more
+   * @param a the other bitmap
+   * @return the cardinality of the symmetric difference
+   */
+  public long xorCardinalityAsLong(EWAHCompressedBitmap a) {
+    BitCounter counter = new BitCounter();
+    xorToContainer(a, counter);
+    return counter.getCountAsLong();
+  }
+
+  /**
+   * computes the number of bits set in this AND NOT a, without building
+   * the result
+   * @param a the bitmap to subtract
+   * @return the cardinality of the difference
+   * @throws ArithmeticException if it is 2^31 or more
+   *   (use andNotCardinalityAsLong)
+   */
+  public int andNotCardinality(EWAHCompressedBitmap a) {
+    return Math.toIntExact(andNotCardinalityAsLong(a));
+  }
+
+  /**
+   * same as andNotCardinality, for bitmaps with 2^31 set bits or more
+   * @param a the bitmap to subtract
+   * @return the cardinality of the difference
+   */
+  public long andNotCardinalityAsLong(EWAHCompressedBitmap a) {
+    BitCounter counter = new BitCounter();
+    andNotToContainer(a, counter);
+    return counter.getCountAsLong();
+  }
+
+  /**
+   * checks whether the two bitmaps have a set bit in common. This
+   * walks the bitmaps like and() but stops at the first common bit.
+   * @param a the other bitmap
+   * @return true if this AND a is not empty
+   */
+  public boolean intersects(EWAHCompressedBitmap a) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext()))
+      return false;
+    BufferedRunningLengthWord rlwi = new BufferedRunningLengthWord(i.next());
+    BufferedRunningLengthWord rlwj = new BufferedRunningLengthWord(j.next());
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      long preyrl  = prey.getRunningLength();
+      if(prey.getRunningBit() && (preyrl > 0)) {
+        // we have a stream of 1x11
+        long predatorrl  = predator.getRunningLength();
+        long tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        if(predator.getRunningBit() && (tobediscarded > 0))
+          return true;
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        if(anyNonZero(predatorit.buffer(), dw_predator, preyrl - tobediscarded))
+          return true;
+      }
+      predator.discardFirstWords(preyrl);
+      prey.discardFirstWords(preyrl);
+      long predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        long tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(predator.getRunningBit()) {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          if(anyNonZero(preyit.buffer(), dw_prey, tobediscarded))
+            return true;
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      long nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        long[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k<nbre_dirty_prey;++k) {
+          if((ib[dw_i+k] & jb[dw_j+k]) != 0)
+            return true;
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) return false;
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) return false;
+        rlwj.reset(j.next());
+      }
+    }
+  }
+
+  private static boolean anyNonZero(long[] data, int start, long number) {
+    for(int k = start; k < start + number; ++k)
+      if(data[k] != 0) return true;
+    return false;
+  }
+
+  /**
+   * adds a OP b, for number literal words, to the container: the words
+   * are combined by the WordKernel a block at a time, then each block is
+   * added in bulk (see addWords)
+   */
+  private static void addCombined(int operation, long[] a, int astart, long[] b, int bstart, int number, BitmapStorage container) {
+    long[] block = kernelblock.get();
+    for(int done = 0; done < number; done += block.length) {
+      int n = Math.min(block.length, number - done);
+      WordKernel.instance.combine(operation, a, astart + done, b, bstart + done, block, n);
+      addWords(block, n, container);
+    }
+  }
+
+  /**
+   * adds the first number words of block to the container: the
+   * stretches of literal words with addStreamOfDirtyWords, the clean
+   * words one at a time (as add would)
+   */
+  private static void addWords(long[] block, int number, BitmapStorage container) {
+    int k = 0;
+    while(k < number) {
+      int literalstart = k;
+      while((k < number) && (block[k] != 0) && (block[k] != ~0l))
+        ++k;
+      if(k > literalstart)
+        container.addStreamOfDirtyWords(block, literalstart, k - literalstart);
+      if(k < number)
+        container.add(block[k++]);
+    }
+  }
+
+  /**
+   * copies what is left of the current marker word and all the
+   * following ones to the container
+   */
+  private static void discharge(BufferedRunningLengthWord initialWord, EWAHIterator iterator, BitmapStorage container) {
+    BufferedRunningLengthWord runningLengthWord = initialWord;
+    while(true) {
+      container.addStreamOfEmptyWords(runningLengthWord.getRunningBit(), runningLengthWord.getRunningLength());
+      container.addStreamOfDirtyWords(iterator.buffer(), runningLengthWord.dirtywordoffset + iterator.dirtyWords(),
+          runningLengthWord.getNumberOfLiteralWords());
+      if(!iterator.hasNext()) break;
+      runningLengthWord.reset(iterator.next());
+    }
+  }
+
+  /**
+   * appends as many clean 0x00 words as what is left of the current
+   * marker word and all the following ones
+   */
+  private static void dischargeAsEmpty(BufferedRunningLengthWord initialWord, EWAHIterator iterator, BitmapStorage container) {
+    long number = initialWord.size();
+    while(iterator.hasNext())
+      number += iterator.next().size();
+    container.addStreamOfEmptyWords(false, number);
+  }
+
+  /**
+   * computes the logical or of many bitmaps. The two smallest bitmaps
+   * (by sizeInBytes) are always merged first, as with Huffman coding, so
+   * that the cost grows with the total compressed size of the input times
+   * the logarithm of the number of bitmaps, rather than quadratically.
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the union of all the bitmaps
+   */
+  public static EWAHCompressedBitmap or(EWAHCompressedBitmap... bitmaps) {
+    return aggregate(bitmaps, OR);
+  }
+
+  /**
+   * computes the exclusive or of many bitmaps, merging the smallest
+   * ones first (see or(EWAHCompressedBitmap...)).
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the bits set in an odd number of the bitmaps
+   */
+  public static EWAHCompressedBitmap xor(EWAHCompressedBitmap... bitmaps) {
+    return aggregate(bitmaps, XOR);
+  }
+
+  /**
+   * computes the logical and of many bitmaps. The bitmaps are processed
+   * from the smallest to the largest (by sizeInBytes) so that the
+   * intermediate results stay small, and we stop as soon as the
+   * intermediate result is empty.
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the intersection of all the bitmaps
+   */
+  public static EWAHCompressedBitmap and(EWAHCompressedBitmap... bitmaps) {
+    if(bitmaps.length < 2)
+      return copyOfFirst(bitmaps);
+    EWAHCompressedBitmap[] sorted = bitmaps.clone();
+    Arrays.sort(sorted, BYSIZE);
+    long sizeinbits = 0;
+    for(EWAHCompressedBitmap b : sorted)
+      sizeinbits = Math.max(sizeinbits, b.sizeinbits);
+    EWAHCompressedBitmap answer = sorted[0].and(sorted[1]);
+    for(int k = 2; (k < sorted.length) && !answer.isEmpty(); ++k)
+      answer = answer.and(sorted[k]);
+    answer.setSizeInBits(sizeinbits);
+    return answer;
+  }
+
+  private static EWAHCompressedBitmap aggregate(EWAHCompressedBitmap[] bitmaps, int operation) {
+    if(bitmaps.length < 2)
+      return copyOfFirst(bitmaps);
+    PriorityQueue<EWAHCompressedBitmap> pq = new PriorityQueue<EWAHCompressedBitmap>(bitmaps.length, BYSIZE);
+    for(EWAHCompressedBitmap b : bitmaps)
+      pq.add(b);
+    while(pq.size() > 1) {
+      EWAHCompressedBitmap x1 = pq.poll();
+      EWAHCompressedBitmap x2 = pq.poll();
+      pq.add(operation == OR ? x1.or(x2) : x1.xor(x2));
+    }
+    return pq.poll();
+  }
+
+  private static EWAHCompressedBitmap copyOfFirst(EWAHCompressedBitmap[] bitmaps) {
+    if(bitmaps.length == 0)
+      return new EWAHCompressedBitmap();
+    try {
+      return (EWAHCompressedBitmap) bitmaps[0].clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse);
+    }
+  }
+
+  private static final int OR = 0;
+  private static final int XOR = 1;
+  private static final Comparator<EWAHCompressedBitmap> BYSIZE = new Comparator<EWAHCompressedBitmap>() {
+    public int compare(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+      return a.sizeInBytes() < b.sizeInBytes() ? -1 : (a.sizeInBytes() == b.sizeInBytes() ? 0 : 1);
+    }
+  };
+
+  /**
+   * checks whether any bit is set, looking only at the marker words
+   * and the literal words (so it is cheaper than cardinality()).
+   * @return true if no bit is set
+   */
+  public boolean isEmpty() {
+    EWAHIterator i = getEWAHIterator();
+    while(i.hasNext()) {
+      RunningLengthWord rlw = i.next();
+      if(rlw.getRunningBit() && (rlw.getRunningLength() > 0))
+        return false;
+      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j)
+        if(i.buffer()[i.dirtyWords()+j] != 0)
+          return false;
+    }
+    return true;
+  }
+
+  /**
+   * query the value of a single bit
+   * @param i the position of the bit
+   * @return whether the bit is set
+   */
+  public boolean get(int i) {
+    return get((long) i);
+  }
+
+  /**
+   * query the value of a single bit, for bitmaps longer than 2^31 bits
+   * @param i the position of the bit
+   * @return whether the bit is set
+   */
+  public boolean get(long i) {
+    if((i < 0) || (i >= sizeinbits)) return false;
+    long word = i / wordinbits;
+    SkipIndex index = getSkipIndex();
+    int e = index.findWord(word);
+    int p = index.markers[e];
+    int skip = index.literals[e];
+    long pos = index.words[e];
+    RunningLengthWord rlw = new RunningLengthWord(buffer, p);
+    while(p < actualsizeinwords) {
+      rlw.position = p;
+      long rl = (skip == 0) ? rlw.getRunningLength() : 0;
+      long nlit = rlw.getNumberOfLiteralWords() - Math.max(skip - 1, 0);
+      int firstliteral = p + Math.max(skip, 1);
+      if(word < pos + rl)
+        return rlw.getRunningBit();
+      if(word < pos + rl + nlit)
+        return (buffer[firstliteral + (int) (word - pos - rl)] & (1l << (i % wordinbits))) != 0;
+      pos += rl + nlit;
+      p += 1 + rlw.getNumberOfLiteralWords();
+      skip = 0;
+    }
+    return false;
+  }
+
+  /**
+   * counts the bits set before a given position
+   * @param i the position
+   * @return the number of set bits at positions 0, 1, ..., i-1
+   */
+  public int rank(int i) {
+    return Math.toIntExact(rank((long) i));
+  }
+
+  /**
+   * counts the bits set before a given position, for bitmaps longer
+   * than 2^31 bits
+   * @param i the position
+   * @return the number of set bits at positions 0, 1, ..., i-1
+   */
+  public long rank(long i) {
+    if(i <= 0) return 0;
+    long word = i / wordinbits;
+    SkipIndex index = getSkipIndex();
+    int e = index.findWord(word);
+    int p = index.markers[e];
+    int skip = index.literals[e];
+    long pos = index.words[e];
+    long card = index.cards[e];
+    RunningLengthWord rlw = new RunningLengthWord(buffer, p);
+    while(p < actualsizeinwords) {
+      rlw.position = p;
+      long rl = (skip == 0) ? rlw.getRunningLength() : 0;
+      long nlit = rlw.getNumberOfLiteralWords() - Math.max(skip - 1, 0);
+      int firstliteral = p + Math.max(skip, 1);
+      if(word < pos + rl)
+        return rlw.getRunningBit() ? card + i - pos * wordinbits : card;
+      if(rlw.getRunningBit()) card += rl * wordinbits;
+      pos += rl;
+      int end = (word < pos + nlit) ? firstliteral + (int) (word - pos) : firstliteral + (int) nlit;
+      for(int k = firstliteral; k < end; ++k)
+        card += Long.bitCount(buffer[k]);
+      if(word < pos + nlit)
+        return card + Long.bitCount(buffer[end] & ((1l << (i % wordinbits)) - 1));
+      pos += nlit;
+      p += 1 + rlw.getNumberOfLiteralWords();
+      skip = 0;
+    }
+    return card;
+  }
+
+  /**
+   * finds the position of the k-th set bit (counting from 0)
+   * @param k the rank of the bit, between 0 and cardinality()-1
+   * @return its position
+   * @throws ArithmeticException if the position is 2^31 or more
+   */
+  public int select(int k) {
+    return Math.toIntExact(select((long) k));
+  }
+
+  /**
+   * finds the position of the k-th set bit (counting from 0), for
+   * bitmaps longer than 2^31 bits
+   * @param k the rank of the bit, between 0 and cardinalityAsLong()-1
+   * @return its position
+   */
+  public long select(long k) {
+    if((k < 0) || (k >= cardinality))
+      throw new IndexOutOfBoundsException("no set bit of rank " + k);
+    SkipIndex index = getSkipIndex();
+    int e = index.findCardinality(k);
+    int p = index.markers[e];
+    int skip = index.literals[e];
+    long pos = index.words[e];
+    long remaining = k - index.cards[e];
+    RunningLengthWord rlw = new RunningLengthWord(buffer, p);
+    while(true) {
+      rlw.position = p;
+      long rl = (skip == 0) ? rlw.getRunningLength() : 0;
+      long nlit = rlw.getNumberOfLiteralWords() - Math.max(skip - 1, 0);
+      int firstliteral = p + Math.max(skip, 1);
+      if(rlw.getRunningBit()) {
+        if(remaining < rl * wordinbits)
+          return pos * wordinbits + remaining;
+        remaining -= rl * wordinbits;
       }
-      // all that is left to do now is to OR the dirty words
-      long nbre_dirty_prey = prey.getNumberOfLiteralWords();
-      if(nbre_dirty_prey > 0) {
-        for(int k = 0; k< nbre_dirty_prey;++k) {
-          container.add(i.buffer()[i.dirtyWords()+k] | j.buffer()[i.dirtyWords()+k]);
+      pos += rl;
+      for(int j = firstliteral; j < firstliteral + nlit; ++j, ++pos) {
+        long data = buffer[j];
+        int c = Long.bitCount(data);
+        if(remaining < c) {
+          for(; remaining > 0; --remaining)
+            data &= data - 1;
+          return pos * wordinbits + Long.numberOfTrailingZeros(data);
         }
-        predator.discardFirstWords(nbre_dirty_prey);
-      }
-      if( i_is_prey ) {
-        if(!i.hasNext()) break;
-        rlwi = new BufferedRunningLengthWord(i.next());
-      } else {
-        if(!j.hasNext()) break;
-        rlwj = new BufferedRunningLengthWord( j.next());
+        remaining -= c;
       }
+      p += 1 + rlw.getNumberOfLiteralWords();
+      skip = 0;
     }
-    container.setSizeInBits(sizeInBits());
-    return container;
+  }
+
+  /**
+   * the index used by get, rank and select is built on first use, and
+   * dropped whenever the bitmap changes
+   */
+  private SkipIndex getSkipIndex() {
+    SkipIndex index = skipindex;
+    if(index == null) {
+      index = new SkipIndex(buffer, actualsizeinwords);
+      skipindex = index;
+    }
+    return index;
   }
 
   /*
@@ -234,16 +1032,27 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
      * be set in increasing order.
      */
   public void set(int i) {
+    set((long) i);
+  }
+
+  /**
+   * set the bit at position i to true, the bits must be set in
+   * increasing order. Positions may go past 2^31.
+   * @param i the position of the bit
+   */
+  public void set(long i) {
     assert i>= sizeinbits;
+    skipindex = null;
+    ++modcount;
     // must I complete a word?
     if ( (sizeinbits % 64) != 0) {
-      int possiblesizeinbits = (sizeinbits /64)*64 + 64;
+      long possiblesizeinbits = (sizeinbits /64)*64 + 64;
       if(possiblesizeinbits<i+1) {
         sizeinbits = possiblesizeinbits;
       }
     }
     addStreamOfEmptyWords(false, (i/64) - sizeinbits/64);
-    int bittoflip = i-(sizeinbits/64 * 64);
+    int bittoflip = (int) (i-(sizeinbits/64 * 64));
     // next, we set the bit
     if(( rlw.getNumberOfLiteralWords() == 0) || ((sizeinbits -1)/64 < i/64) ){
       long newdata = 1l<<bittoflip;
@@ -261,6 +1070,276 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       }
     }
     sizeinbits = i+1;
+    ++cardinality;
+  }
+
+  /**
+   * sets the bits from start (inclusive) to end (exclusive) to true.
+   * As with set, start must be at least sizeInBits(). The complete
+   * words are added as one stream of clean words, so that the cost
+   * does not depend on the length of the range.
+   * @param start the first position
+   * @param end one past the last position
+   */
+  public void setRange(long start, long end) {
+    if(start < sizeinbits)
+      throw new IllegalArgumentException("start (" + start + ") is smaller than the size in bits (" + sizeinbits + ")");
+    if(end <= start) return;
+    long firstword = start / wordinbits;
+    long lastword = (end - 1) / wordinbits;
+    if(firstword == lastword) {
+      orWord(firstword, mask((int) (start % wordinbits), (int) ((end - 1) % wordinbits) + 1), end);
+      return;
+    }
+    if(start % wordinbits != 0) {
+      orWord(firstword, mask((int) (start % wordinbits), wordinbits), (firstword + 1) * wordinbits);
+      ++firstword;
+    }
+    long fullwords = end / wordinbits - firstword;
+    if(fullwords > 0) {
+      normalize();
+      addStreamOfEmptyWords(false, firstword - (sizeinbits + wordinbits - 1) / wordinbits);
+      addStreamOfEmptyWords(true, fullwords);
+      sizeinbits = (firstword + fullwords) * wordinbits;
+    }
+    if(end % wordinbits != 0)
+      orWord(lastword, mask(0, (int) (end % wordinbits)), end);
+  }
+
+  /**
+   * sets the bits at the given positions to true, one word at a time
+   * rather than one bit at a time. The positions must be sorted and at
+   * least sizeInBits(); the bitmap is left untouched otherwise.
+   * @param sorted the positions
+   * @param off where the positions start in the array
+   * @param len how many positions
+   */
+  public void addAll(int[] sorted, int off, int len) {
+    long min = sizeinbits;
+    for(int k = off; k < off + len; ++k) {
+      if(sorted[k] < min)
+        throw new IllegalArgumentException("the positions should be sorted and at least " + sizeinbits + ": " + sorted[k]);
+      min = sorted[k];
+    }
+    int k = off;
+    while(k < off + len) {
+      long word = sorted[k] / wordinbits;
+      long bits = 0;
+      long last;
+      do {
+        last = sorted[k++];
+        bits |= 1l << (last % wordinbits);
+      } while((k < off + len) && (sorted[k] / wordinbits == word));
+      orWord(word, bits, last + 1);
+    }
+  }
+
+  /**
+   * @param sorted positions, in increasing order
+   * @return a bitmap with the bits at the positions set to true
+   */
+  public static EWAHCompressedBitmap bitmapOf(int... sorted) {
+    EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+    answer.addAll(sorted, 0, sorted.length);
+    return answer;
+  }
+
+  /**
+   * sets bits in a word that is either the incomplete last word or a
+   * word past the last one, then sets the size in bits. As after set,
+   * an incomplete last word is a literal word.
+   * @param word the index of the word
+   * @param bits the bits to set in the word
+   * @param newsizeinbits the new size in bits
+   */
+  private void orWord(long word, long bits, long newsizeinbits) {
+    skipindex = null;
+    ++modcount;
+    long size = sizeinbits;
+    // the last word may be part of a run (e.g., in the result of and)
+    long last = takeLastWord(wordsInBuffer());
+    long current = size / wordinbits;
+    if(word == current) {
+      bits |= last;
+    } else {
+      if(size % wordinbits != 0) {
+        sizeinbits = current * wordinbits;
+        add(last);
+      }
+      addStreamOfEmptyWords(false, word - sizeinbits / wordinbits);
+    }
+    sizeinbits = word * wordinbits;
+    if(newsizeinbits >= sizeinbits + wordinbits) {
+      add(bits);
+    } else {
+      addLiteralWord(bits);
+      cardinality += Long.bitCount(bits);
+    }
+    sizeinbits = newsizeinbits;
+    exactwords = true;
+  }
+
+  /**
+   * makes the layout what set expects: the trailing zero words are
+   * written out, and an incomplete last word is a literal word
+   */
+  private void normalize() {
+    normalize(wordsInBuffer());
+  }
+
+  /**
+   * @param words the number of words the markers account for
+   */
+  private void normalize(long words) {
+    long size = sizeinbits;
+    long last = takeLastWord(words);
+    if(size % wordinbits != 0) {
+      addLiteralWord(last);
+      cardinality += Long.bitCount(last);
+    }
+    sizeinbits = size;
+    exactwords = true;
+  }
+
+  /**
+   * @return a word with the bits from start (inclusive) to end
+   *   (exclusive) set
+   */
+  private static long mask(int start, int end) {
+    long upto = (end == wordinbits) ? ~0l : (1l << end) - 1;
+    return upto & (~0l << start);
+  }
+
+  /**
+   * appends the bits of another bitmap after the last bit of this one:
+   * bit i of a becomes bit sizeInBitsAsLong() + i. Bitmaps built
+   * separately for consecutive ranges of rows (e.g., by different
+   * threads) can so be put together without decoding them.
+   *
+   * When the size in bits of this bitmap is a multiple of 64, the
+   * words of a are copied as they are, the literal words in bulk, and
+   * the marker words at the boundary are merged. Otherwise the literal
+   * words of a are shifted one at a time (runs are still handled as a
+   * whole).
+   *
+   * @param a the bitmap to append (left untouched)
+   * @throws IllegalStateException if a bitmap has words past its size in
+   *   bits (e.g., after setSizeInBits shrank it)
+   */
+  public void append(EWAHCompressedBitmap a) {
+    if(a.wordsInBuffer() > (a.sizeinbits + wordinbits - 1) / wordinbits)
+      throw new IllegalStateException("the bitmap has words past its size in bits");
+    if(a == this) {
+      try {
+        a = (EWAHCompressedBitmap) clone();
+      } catch (CloneNotSupportedException cnse) {
+        throw new RuntimeException(cnse);
+      }
+    }
+    long size = sizeinbits + a.sizeinbits;
+    int offset = (int) (sizeinbits % wordinbits);
+    long carry = takeLastWord(wordsInBuffer());
+    // from here on, the buffer holds sizeinbits / 64 words
+    sizeinbits -= offset;
+    EWAHIterator i = a.getEWAHIterator();
+    if(offset == 0) {
+      while(i.hasNext()) {
+        RunningLengthWord r = i.next();
+        addStreamOfEmptyWords(r.getRunningBit(), r.getRunningLength());
+        addStreamOfDirtyWords(i.buffer(), i.dirtyWords(), r.getNumberOfLiteralWords());
+      }
+    } else {
+      while(i.hasNext()) {
+        RunningLengthWord r = i.next();
+        long rl = r.getRunningLength();
+        if(rl > 0) {
+          if(r.getRunningBit()) {
+            add(carry | (~0l << offset));
+            addStreamOfEmptyWords(true, rl - 1);
+            carry = ~0l >>> (wordinbits - offset);
+          } else {
+            add(carry);
+            addStreamOfEmptyWords(false, rl - 1);
+            carry = 0;
+          }
+        }
+        long[] b = i.buffer();
+        int end = i.dirtyWords() + (int) r.getNumberOfLiteralWords();
+        for(int k = i.dirtyWords(); k < end; ++k) {
+          add(carry | (b[k] << offset));
+          carry = b[k] >>> (wordinbits - offset);
+        }
+      }
+      if(carry != 0)
+        add(carry);
+    }
+    long words = sizeinbits / wordinbits;
+    sizeinbits = size;
+    normalize(words);
+  }
+
+  /**
+   * concatenates bitmaps (see append)
+   * @param bitmaps the bitmaps, in order (left untouched)
+   * @return a new bitmap with the bits of each bitmap after those of
+   *   the previous ones; it can be extended with set
+   */
+  public static EWAHCompressedBitmap concat(EWAHCompressedBitmap... bitmaps) {
+    EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+    for(EWAHCompressedBitmap b : bitmaps)
+      answer.append(b);
+    return answer;
+  }
+
+  /**
+   * makes the buffer hold exactly the full words below sizeinbits: the
+   * implicit zero words are written out, and the last word, if it is
+   * incomplete, is removed. The size in bits is left as it is.
+   * @param words the number of words the markers account for
+   * @return the bits of the removed word below sizeinbits
+   */
+  private long takeLastWord(long words) {
+    int partial = (int) (sizeinbits % wordinbits);
+    long full = sizeinbits / wordinbits;
+    if(words > full + (partial > 0 ? 1 : 0))
+      throw new IllegalStateException("the bitmap has words past its size in bits");
+    if(words <= full) {
+      long size = sizeinbits;
+      addStreamOfEmptyWords(false, full - words);
+      sizeinbits = size;
+      return 0;
+    }
+    long last;
+    long nlit = rlw.getNumberOfLiteralWords();
+    if(nlit > 0) {
+      last = buffer[actualsizeinwords - 1];
+      buffer[actualsizeinwords - 1] = 0;
+      --actualsizeinwords;
+      rlw.setNumberOfLiteralWords(nlit - 1);
+    } else if(rlw.getRunningLength() > 0) {
+      last = rlw.getRunningBit() ? ~0l : 0;
+      rlw.setRunningLength(rlw.getRunningLength() - 1);
+    } else {
+      throw new IllegalStateException("the last marker word is empty");
+    }
+    cardinality -= Long.bitCount(last);
+    skipindex = null;
+    ++modcount;
+    return last & ((1l << partial) - 1);
+  }
+
+  /**
+   * @return the number of words the markers account for: unless the
+   *   size in bits was set directly, one per 64 bits (constant time)
+   */
+  private long wordsInBuffer() {
+    if(exactwords)
+      return (sizeinbits + wordinbits - 1) / wordinbits;
+    long words = 0;
+    EWAHIterator i = getEWAHIterator();
+    while(i.hasNext())
+      words += i.next().size();
+    return words;
   }
 
   /**
@@ -285,6 +1364,8 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
    */
   public int addStreamOfEmptyWords(boolean v, long number) {
     if(number == 0) return 0;
+    skipindex = null;
+    ++modcount;
     boolean noliteralword = (rlw.getNumberOfLiteralWords() == 0);
     long runlen = rlw.getRunningLength();
     if( ( noliteralword ) && ( runlen == 0 )) {
@@ -296,6 +1377,7 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       long whatwecanadd = Math.min(number, RunningLengthWord.largestrunninglengthcount -runlen);
       rlw.setRunningLength(runlen+whatwecanadd);
       sizeinbits += whatwecanadd*wordinbits;
+      if(v) cardinality += whatwecanadd*wordinbits;
       if(number - whatwecanadd> 0 ) wordsadded += addStreamOfEmptyWords(v, number - whatwecanadd);
     } else {
       push_back(0);
@@ -305,6 +1387,7 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
       rlw.setRunningBit(v);
       rlw.setRunningLength(whatwecanadd);
       sizeinbits += whatwecanadd*wordinbits;
+      if(v) cardinality += whatwecanadd*wordinbits;
       if(number - whatwecanadd> 0 ) wordsadded += addStreamOfEmptyWords(v, number - whatwecanadd);
     }
     return wordsadded;
@@ -318,14 +1401,17 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
    * @param number number
    * @return ?
    */
-  long addStreamOfDirtyWords(long[] data, long start, long number) {
+  public long addStreamOfDirtyWords(long[] data, long start, long number) {
     if(number == 0) return 0;
+    skipindex = null;
+    ++modcount;
     long NumberOfLiteralWords = rlw.getNumberOfLiteralWords();
     long whatwecanadd = Math.min(number, RunningLengthWord.largestliteralcount - NumberOfLiteralWords);
     rlw.setNumberOfLiteralWords(NumberOfLiteralWords+whatwecanadd);
     long leftovernumber = number -whatwecanadd;
 //    long oldsize = actualsizeinwords;
     push_back(data,(int)start,(int)whatwecanadd);
+    sizeinbits += whatwecanadd*wordinbits;
     long wordsadded = whatwecanadd;
     if(leftovernumber>0) {
       push_back(0);
@@ -336,6 +1422,35 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
     return wordsadded;
   }
 
+  /**
+   * same as addStreamOfDirtyWords, but the words are negated
+   * as they are copied.
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  public long addStreamOfNegatedDirtyWords(long[] data, long start, long number) {
+    if(number == 0) return 0;
+    skipindex = null;
+    ++modcount;
+    long NumberOfLiteralWords = rlw.getNumberOfLiteralWords();
+    long whatwecanadd = Math.min(number, RunningLengthWord.largestliteralcount - NumberOfLiteralWords);
+    rlw.setNumberOfLiteralWords(NumberOfLiteralWords+whatwecanadd);
+    long leftovernumber = number -whatwecanadd;
+    push_back_negated(data,(int)start,(int)whatwecanadd);
+    sizeinbits += whatwecanadd*wordinbits;
+    long wordsadded = whatwecanadd;
+    if(leftovernumber>0) {
+      push_back(0);
+      rlw.position=actualsizeinwords - 1;
+      ++wordsadded;
+      wordsadded+=addStreamOfNegatedDirtyWords(data,start+whatwecanadd, leftovernumber);
+    }
+    return wordsadded;
+  }
+
   /*
      * sometimes, at the end, you don't have 8*8 bits to add,
      * so use this method instead.
@@ -344,6 +1459,9 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
      */
   public int add(long  newdata, int bitsthatmatter) {
     sizeinbits += bitsthatmatter;
+    skipindex = null;
+    ++modcount;
+    cardinality += Long.bitCount(newdata);
     if(newdata == 0) {
       return addEmptyWord(false);
     } else if (newdata == ~0l) {
@@ -353,32 +1471,101 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
     }
   }
 
+  /**
+   * @return the size in bits
+   * @throws ArithmeticException if the bitmap is longer than 2^31-1 bits
+   *   (use sizeInBitsAsLong)
+   */
   public int sizeInBits() {
+    return Math.toIntExact(sizeinbits);
+  }
+  /**
+   * @return the size in bits, which may be more than 2^31-1
+   */
+  public long sizeInBitsAsLong() {
     return sizeinbits;
   }
-  public void setSizeInBits(int size) {
+  public void setSizeInBits(long size) {
     sizeinbits = size;
+    exactwords = false;
+    ++modcount;
   }
   public int sizeInBytes() {
     return actualsizeinwords*8;
   }
+
+  /**
+   * grows the buffer, if needed, so that it holds at least the given
+   * number of words (e.g., before reusing a bitmap as a container)
+   * @param sizeinwords the number of words
+   */
+  public void ensureCapacity(int sizeinwords) {
+    if(buffer.length < sizeinwords) {
+      buffer = Arrays.copyOf(buffer, sizeinwords);
+      rlw.array = buffer;
+    }
+  }
+
+  /**
+   * shrinks the buffer to the words in use (e.g., before keeping a
+   * result around for long)
+   */
+  public void trim() {
+    if(buffer.length > actualsizeinwords) {
+      buffer = Arrays.copyOf(buffer, actualsizeinwords);
+      rlw.array = buffer;
+    }
+  }
+
+  /**
+   * empties the bitmap, keeping its buffer for reuse
+   */
+  public void clear() {
+    buffer[0] = 0;
+    actualsizeinwords = 1;
+    rlw.position = 0;
+    sizeinbits = 0;
+    cardinality = 0;
+    exactwords = true;
+    skipindex = null;
+    ++modcount;
+  }
   private void push_back(long data) {
     if(actualsizeinwords==buffer.length) {
       long oldbuffer[] = buffer;
       buffer = new long[oldbuffer.length * 2];
       System.arraycopy(oldbuffer,0,buffer,0,oldbuffer.length);
+      rlw.array = buffer;
     }
     buffer[actualsizeinwords++] = data;
   }
 
   private void push_back(long[] data,int start, int number) {
+    reserve(number);
+    System.arraycopy(data,start,buffer,actualsizeinwords,number);
+    cardinality += WordKernel.instance.bitCount(data, start, number);
+    actualsizeinwords+=number;
+  }
+
+  private void push_back_negated(long[] data,int start, int number) {
+    reserve(number);
+    for(int k = 0; k < number; ++k) {
+      buffer[actualsizeinwords+k] = ~data[start+k];
+      cardinality += Long.bitCount(~data[start+k]);
+    }
+    actualsizeinwords+=number;
+  }
+
+  /**
+   * grows the buffer so that number more words fit
+   */
+  private void reserve(int number) {
     while(actualsizeinwords + number >=buffer.length) {
       long oldbuffer[] = buffer;
       buffer = new long[oldbuffer.length * 2];
       System.arraycopy(oldbuffer,0,buffer,0,oldbuffer.length);
+      rlw.array = buffer;
     }
-    System.arraycopy(data,start,buffer,actualsizeinwords,number);
-    actualsizeinwords+=number;
   }
 
   private int addEmptyWord(boolean v) {
@@ -417,108 +1604,99 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
 
 
   /**
-   * reports the number of bits set
+   * reports the number of bits set. The count is maintained as the
+   * bitmap is built (by add, addStreamOfEmptyWords, set, not and the
+   * logical operations), so this takes constant time.
    * @return cardinality
+   * @throws ArithmeticException if 2^31 bits or more are set
+   *   (use cardinalityAsLong)
    */
   public int cardinality() {
-    int counter = 0;
+    return Math.toIntExact(cardinality);
+  }
+
+  /**
+   * @return the number of bits set, which may be 2^31 or more
+   */
+  public long cardinalityAsLong() {
+    return cardinality;
+  }
+
+  /**
+   * counts the bits set in the buffer, one word at a time
+   * @return cardinality
+   */
+  long computeCardinality() {
+    long counter = 0;
     EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
     while(i.hasNext()) {
       RunningLengthWord rlw = i.next();
       if(rlw.getRunningBit()) {
         counter += wordinbits*rlw.getRunningLength();
-      } else {
       }
       for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
-        long data = i.buffer()[i.dirtyWords()+j];
-        for(int c= 0; c<wordinbits; ++c)
-          if((data & (1l<<c)) != 0) ++counter;
+        counter += Long.bitCount(i.buffer()[i.dirtyWords()+j]);
       }
     }
     return counter;
   }
 
   public String toString() {
-    // TODO stop using string concatination
-    String ans = " EWAHCompressedBitmap, size in words = " + actualsizeinwords + "\n";
+    StringBuilder ans = new StringBuilder();
+    ans.append(" EWAHCompressedBitmap, size in words = ").append(actualsizeinwords).append('\n');
     EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
     while (i.hasNext()) {
       RunningLengthWord rlw = i.next();
-      if (rlw.getRunningBit()) {
-        ans+=rlw.getRunningLength()+" 1x11\n";
-      } else {
-        ans+=rlw.getRunningLength()+" 0x00\n";
-      }
-      ans+=rlw.getNumberOfLiteralWords()+" dirties\n";
-      //for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
-      //	long data = i.buffer()[i.dirtyWords()+j];
-      //	ans+="\t"+data+"\n";
-      //}
+      ans.append(rlw.getRunningLength()).append(rlw.getRunningBit() ? " 1x11\n" : " 0x00\n");
+      ans.append(rlw.getNumberOfLiteralWords()).append(" dirties\n");
     }
-    return ans;
+    return ans.toString();
+  }
+
+  /**
+   * iterate over the positions of the true values,
+   * without boxing them. A position of 2^31 or more makes the
+   * iterator throw an ArithmeticException (use longIterator).
+   * @return iterator
+   */
+  public IntIterator intIterator() {
+    return new IntIteratorImpl(getEWAHIterator());
+  }
+
+  /**
+   * iterate over the positions of the true values, as longs,
+   * for bitmaps longer than 2^31 bits.
+   * @return iterator
+   */
+  public LongIterator longIterator() {
+    final IntIteratorImpl under = new IntIteratorImpl(getEWAHIterator());
+    return new LongIterator() {
+      public boolean hasNext() {
+        return under.hasNext();
+      }
+      public long next() {
+        return under.nextLong();
+      }
+      public int nextBatch(long[] out) {
+        return under.nextBatch(out);
+      }
+    };
   }
 
   /**
    * iterate over the positions of the true values.
+   * (intIterator() is faster since it does not box the positions)
+   * As with intIterator, positions past 2^31 make it throw.
    * @return iterator
    */
   public Iterator<Integer> iterator() {
-    final EWAHIterator i = new EWAHIterator(buffer, actualsizeinwords);
+    final IntIterator under = intIterator();
     return new Iterator<Integer>() {
-      int pos = 0;
-      RunningLengthWord rlw = null;
-      Vector<Integer> buffer = new Vector<Integer>();
-      int bufferpos= 0;
       public boolean 	hasNext() {
-        if(rlw == null)
-          if(!loadNextRLE())
-            return false;
-          else {
-            loadBuffer();
-            return true;
-          }
-        else
-          return true;
-      }
-
-      private boolean loadNextRLE() {
-        while(i.hasNext()) {
-          rlw = i.next();
-          if(rlw.getRunningBit() && (rlw.getRunningLength()>0) )
-            return true;
-          if(rlw.getNumberOfLiteralWords()>0)
-            return true;
-        }
-        return false;
-
-      }
-
-      private void loadBuffer() {
-        buffer = new Vector<Integer>();
-        bufferpos = 0;
-        if(rlw.getRunningBit()) {
-          for(int j = 0; j<rlw.getRunningLength();++j) {
-            for(int c= 0; c<wordinbits;++c)
-              buffer.add(pos++);
-          }
-        } else {
-          pos+=wordinbits*rlw.getRunningLength();
-        }
-        for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
-          long data = i.buffer()[i.dirtyWords()+j];
-          for(long c= 0; c<wordinbits;++c) {
-            if( ((1l << c) & data) != 0) {
-              buffer.add(pos);
-            }
-            ++pos;
-          }
-        }
-
+        return under.hasNext();
       }
       public Integer 	next() {
-        if(buffer.size() == bufferpos+1)
-          rlw = null;
-        return buffer.get(bufferpos++);
+        return under.next();
       }
       public void remove() {
         throw new RuntimeException("not implemented");
@@ -530,33 +1708,18 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
    * get the locations of the true values as one vector.
    * (may use more memory than iterator())
    * @return positionts
+   * @throws ArithmeticException if a position is 2^31 or more
    */
   public Vector<Integer> getPositions() {
+    long start = Instrumentation.start();
     Vector<Integer> v = new Vector<Integer>();
-    EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
-    int pos = 0;
+    IntIterator i = intIterator();
     while(i.hasNext()) {
-      RunningLengthWord rlw = i.next();
-      if(rlw.getRunningBit()) {
-        for(int j = 0; j<rlw.getRunningLength();++j) {
-          for(int c= 0; c<wordinbits;++c)
-            v.add(pos++);
-        }
-      } else {
-        pos+=wordinbits*rlw.getRunningLength();
-      }
-      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
-        long data = i.buffer()[i.dirtyWords()+j];
-        for(long c= 0; c<wordinbits;++c) {
-          if( ((1l << c) & data) != 0) {
-            v.add(pos);
-          }
-          ++pos;
-        }
-      }
+      int pos = i.next();
+      if(pos >= sizeinbits) break;
+      v.add(pos);
     }
-    while( (v.size()>0) && (v.lastElement() >= sizeinbits ))
-      v.removeElementAt(v.size()-1);
+    Instrumentation.done(Instrumentation.ITERATE, start, actualsizeinwords, v.size());
     return v;
   }
 
@@ -566,32 +1729,224 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable {
     clone.buffer = this.buffer.clone();
     clone.actualsizeinwords = this.actualsizeinwords;
     clone.sizeinbits = this.sizeinbits;
+    clone.rlw = new RunningLengthWord(clone.buffer, this.rlw.position);
     return clone;
   }
 
   public void	readExternal(ObjectInput in) throws IOException {
-    sizeinbits = in.readInt();
-    actualsizeinwords = in.readInt();
-    buffer = new long[in.readInt()];
-    for(int k = 0; k< actualsizeinwords; ++k)
-      buffer[k] = in.readLong();
-    rlw = new RunningLengthWord(buffer,actualsizeinwords-1);
+    long start = Instrumentation.start();
+    long size = in.readInt();
+    if(size < 0) // too long for an int: it follows as a long
+      size = in.readLong();
+    int words = in.readInt();
+    checkWordCount(words, Integer.MAX_VALUE);
+    in.readInt(); // the capacity of the writer's buffer: we only need what is used
+    long[] data = new long[Math.min(words, serialchunk)];
+    for(int k = 0; k < words; ++k) {
+      if(k == data.length)
+        data = Arrays.copyOf(data, (int) Math.min(2l * k, words));
+      data[k] = in.readLong();
+    }
+    load(size, data, words);
+    Instrumentation.done(Instrumentation.DESERIALIZE, start, actualsizeinwords, this, null);
   }
 
   public void	writeExternal(ObjectOutput out) throws IOException  {
-    out.writeInt(sizeinbits);
+    if(sizeinbits <= Integer.MAX_VALUE) {
+      out.writeInt((int) sizeinbits);
+    } else {
+      out.writeInt(-1);
+      out.writeLong(sizeinbits);
+    }
     out.writeInt(actualsizeinwords);
     out.writeInt(buffer.length);
     for(int k = 0; k< actualsizeinwords; ++k)
       out.writeLong(buffer[k]);
   }
 
+  /**
+   * writes the bitmap in a compact format: a header (magic number and
+   * format version as big-endian ints, size in bits as a big-endian long,
+   * number of words as a big-endian int) followed by the used words only,
+   * as big-endian longs. Unlike
+   * writeExternal, the words are written in bulk.
+   *
+   * @param out where to write
+   * @throws IOException if the output fails
+   */
+  public void serialize(DataOutput out) throws IOException {
+    out.writeInt(serialmagic);
+    out.writeInt(serialversion);
+    out.writeLong(sizeinbits);
+    out.writeInt(actualsizeinwords);
+    byte[] bytes = new byte[Math.min(actualsizeinwords, serialchunk) * 8];
+    LongBuffer chunk = ByteBuffer.wrap(bytes).asLongBuffer();
+    for(int k = 0; k < actualsizeinwords; k += serialchunk) {
+      int number = Math.min(serialchunk, actualsizeinwords - k);
+      chunk.clear();
+      chunk.put(buffer, k, number);
+      out.write(bytes, 0, number * 8);
+    }
+  }
+
+  /**
+   * writes the bitmap in the format of serialize(DataOutput), starting
+   * at the position of the buffer (whatever its byte order), and moves
+   * the position past it
+   *
+   * @param out where to write
+   */
+  public void serialize(ByteBuffer out) {
+    ByteBuffer b = out.slice().order(ByteOrder.BIG_ENDIAN);
+    b.putInt(serialmagic);
+    b.putInt(serialversion);
+    b.putLong(sizeinbits);
+    b.putInt(actualsizeinwords);
+    b.asLongBuffer().put(buffer, 0, actualsizeinwords);
+    out.position(out.position() + serializedSizeInBytes());
+  }
+
+  /**
+   * reads a bitmap written by serialize, replacing the content of
+   * this one
+   *
+   * @param in where to read
+   * @throws IOException if the input fails or is not a bitmap we can read
+   */
+  public void deserialize(DataInput in) throws IOException {
+    long start = Instrumentation.start();
+    checkHeader(in.readInt(), in.readInt());
+    long size = in.readLong();
+    int words = in.readInt();
+    checkWordCount(words, Integer.MAX_VALUE);
+    // the array grows as the words come, so that a corrupt count cannot
+    // make us allocate more than the input holds
+    long[] data = new long[Math.min(words, serialchunk)];
+    byte[] bytes = new byte[Math.min(words, serialchunk) * 8];
+    LongBuffer chunk = ByteBuffer.wrap(bytes).asLongBuffer();
+    for(int k = 0; k < words; k += serialchunk) {
+      int number = Math.min(serialchunk, words - k);
+      if(k + number > data.length)
+        data = Arrays.copyOf(data, (int) Math.min(2l * data.length, words));
+      in.readFully(bytes, 0, number * 8);
+      chunk.clear();
+      chunk.get(data, k, number);
+    }
+    load(size, data, words);
+    Instrumentation.done(Instrumentation.DESERIALIZE, start, actualsizeinwords, this, null);
+  }
+
+  /**
+   * reads a bitmap written by serialize, starting at the position of the
+   * buffer, and moves the position past it
+   *
+   * @param in where to read
+   * @throws IOException if this is not a bitmap we can read
+   */
+  public void deserialize(ByteBuffer in) throws IOException {
+    long start = Instrumentation.start();
+    ByteBuffer b = in.slice().order(ByteOrder.BIG_ENDIAN);
+    if(b.remaining() < serialheadersize)
+      throw new IOException("truncated serialized EWAHCompressedBitmap");
+    checkHeader(b.getInt(), b.getInt());
+    long size = b.getLong();
+    int words = b.getInt();
+    checkWordCount(words, b.remaining() / 8);
+    long[] data = new long[words];
+    b.asLongBuffer().get(data, 0, words);
+    in.position(in.position() + serialheadersize + words * 8);
+    load(size, data, words);
+    Instrumentation.done(Instrumentation.DESERIALIZE, start, actualsizeinwords, this, null);
+  }
+
+  /**
+   * @return how many bytes serialize writes
+   */
+  public int serializedSizeInBytes() {
+    return serialheadersize + actualsizeinwords * 8;
+  }
+
+  /**
+   * @param words the number of words of a serialized bitmap
+   * @param available how many words the input holds, at most
+   * @throws IOException if the count cannot be right (there is always
+   *   at least one marker word)
+   */
+  static void checkWordCount(long words, long available) throws IOException {
+    if((words < 1) || (words > available))
+      throw new IOException("invalid number of words in a serialized EWAHCompressedBitmap: " + words);
+  }
+
+  static void checkHeader(int magic, int version) throws IOException {
+    if(magic != serialmagic)
+      throw new IOException("not a serialized EWAHCompressedBitmap");
+    if(version != serialversion)
+      throw new IOException("unsupported serialization format version " + version);
+  }
+
+  /**
+   * replaces the content of the bitmap with words that were read in
+   */
+  private void load(long size, long[] data, int words) throws IOException {
+    if(size < 0)
+      throw new IOException("invalid size in bits: " + size);
+    sizeinbits = size;
+    buffer = data;
+    actualsizeinwords = words;
+    loaded();
+  }
+
+  /**
+   * once the words have been read in: find the last marker word
+   * and recompute what we cache
+   */
+  private void loaded() {
+    int lastmarker = 0;
+    EWAHIterator i = getEWAHIterator();
+    while(i.hasNext()) {
+      lastmarker = i.pointer;
+      i.next();
+    }
+    rlw = new RunningLengthWord(buffer, lastmarker);
+    cardinality = computeCardinality();
+    exactwords = false;
+    skipindex = null;
+    ++modcount;
+  }
+
+  static final int serialmagic = 0x45574148; // "EWAH"
+  static final int serialversion = 1;
+  static final int serialheadersize = 20;
+  private static final int serialchunk = 1024;
+
 
   static final int defaultbuffersize = 512;
-  long buffer[] = new long[defaultbuffersize];
+  /**
+   * stretches of literal words at least this long go through the WordKernel
+   */
+  static final int kernelthreshold = 16;
+  private static final ThreadLocal<long[]> kernelblock = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[256];
+    }
+  };
+  long buffer[];
   int actualsizeinwords = 1;
-  int sizeinbits = 0;
-  RunningLengthWord rlw = new RunningLengthWord(buffer,0);
+  long sizeinbits = 0;
+  long cardinality = 0;
+  /**
+   * true when the markers account for exactly one word per 64 bits, as
+   * they do unless the size in bits was set directly (setSizeInBits, the
+   * logical operations, deserialization)
+   */
+  boolean exactwords = true;
+  SkipIndex skipindex = null;
+  /**
+   * incremented whenever the bitmap changes (see ResultCache)
+   */
+  int modcount = 0;
+  RunningLengthWord rlw;
   public static final int wordinbits = 8*8;
 
 
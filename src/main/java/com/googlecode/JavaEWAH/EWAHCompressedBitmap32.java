@@ -0,0 +1,1232 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+/**
+ * The same EWAH scheme as EWAHCompressedBitmap, but over 32-bit words:
+ * a marker word holds a running bit, a 16-bit running length and a
+ * 15-bit number of literal words.
+ *
+ * Sparse bitmaps (a few scattered bits) need one literal word per set bit
+ * or so, and that word is half the size here. Long runs need more marker
+ * words, since a marker covers at most 65535 clean words, so dense or
+ * very long bitmaps are better served by the 64-bit EWAHCompressedBitmap.
+ *
+ * This class has the core of the 64-bit API: set, get, add and the
+ * stream methods, and, or, xor, andNot and not (also over many bitmaps,
+ * and into a BitmapStorage32), their cardinalities, intersects, the
+ * iterators, toString, clone, and both serialization formats. Positions and
+ * sizes are ints. What came later to EWAHCompressedBitmap is not here:
+ * rank and select, append and concat, setRange, addAll and bitmapOf, the
+ * Into variants and container reuse (clear, trim, ensureCapacity),
+ * IteratorUtil cursors, BitmapStatistics, Instrumentation reports and
+ * ResultCache. Use the 64-bit class for those.
+ */
+public class EWAHCompressedBitmap32 implements Cloneable, Externalizable, BitmapStorage32 {
+
+  private static final long serialVersionUID = 1L;
+
+  public EWAHCompressedBitmap32 () {}
+
+  EWAHIterator getEWAHIterator() {
+    return new EWAHIterator(buffer,actualsizeinwords);
+  }
+
+  /**
+   * computes the bits of this bitmap that are not set in a, in one pass
+   * (neither a nor this bitmap is modified)
+   * @param a the bitmap to subtract
+   * @return this AND NOT a
+   */
+  public EWAHCompressedBitmap32 andNot(EWAHCompressedBitmap32 a) {
+    EWAHCompressedBitmap32 container = new EWAHCompressedBitmap32();
+    andNotToContainer(a, container);
+    return container;
+  }
+
+  /**
+   * computes this AND NOT a and writes the result to a container
+   * (e.g., a BitCounter32 if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void andNotToContainer(EWAHCompressedBitmap32 a, BitmapStorage32 container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeInBits());
+      return;
+    }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord32 rlwi = new BufferedRunningLengthWord32(i.next());
+    BufferedRunningLengthWord32 rlwj = new BufferedRunningLengthWord32(j.next());
+    while (true) {
+      // i walks over a (the negated operand), j over this bitmap
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord32 prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord32 predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      int preyrl  = prey.getRunningLength();
+      if(prey.getRunningBit() == i_is_prey) {
+        // either a stream of 1x11 in a or a stream of 0x00 in this bitmap
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+        container.addStreamOfEmptyWords(false, preyrl);
+      } else {
+        int predatorrl  = predator.getRunningLength();
+        int tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        container.addStreamOfEmptyWords(predator.getRunningBit() == i_is_prey, tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        if(i_is_prey)
+          container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        else
+          container.addStreamOfNegatedDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+      }
+      int predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        int tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(predator.getRunningBit() != i_is_prey) {
+          // either a stream of 1x11 in a or a stream of 0x00 in this bitmap
+          container.addStreamOfEmptyWords(false, tobediscarded);
+        } else {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          if(i_is_prey)
+            container.addStreamOfNegatedDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+          else
+            container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to AND NOT the dirty words
+      int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        int[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k<nbre_dirty_prey;++k) {
+          container.add(jb[dw_j+k] & ~ib[dw_i+k]);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          dischargeAsEmpty(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeInBits(), a.sizeInBits()));
+  }
+
+  public EWAHCompressedBitmap32 and(EWAHCompressedBitmap32 a) {
+    EWAHCompressedBitmap32 container = new EWAHCompressedBitmap32();
+    andToContainer(a, container);
+    return container;
+  }
+
+  /**
+   * computes this AND a and writes the result to a container
+   * (e.g., a BitCounter32 if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void andToContainer(EWAHCompressedBitmap32 a, BitmapStorage32 container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeInBits());
+      return;
+    }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord32 rlwi = new BufferedRunningLengthWord32(i.next());
+    BufferedRunningLengthWord32 rlwj = new BufferedRunningLengthWord32(j.next());
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord32 prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord32 predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      if(!prey.getRunningBit()) {
+        int preyrl = prey.getRunningLength();
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+        container.addStreamOfEmptyWords(false, preyrl);
+      } else {
+        // we have a stream of 1x11
+        int predatorrl  = predator.getRunningLength();
+        int preyrl  = prey.getRunningLength();
+        int tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        container.addStreamOfEmptyWords(predator.getRunningBit(), tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+      }
+      int predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        int tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(!predator.getRunningBit()) {
+          container.addStreamOfEmptyWords(false, tobediscarded);
+        } else {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to AND the dirty words
+      int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        int[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k<nbre_dirty_prey;++k) {
+          container.add(ib[dw_i+k] & jb[dw_j+k]);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          dischargeAsEmpty(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          dischargeAsEmpty(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeInBits(), a.sizeInBits()));
+  }
+
+  /*
+     * return a negated version of this bitmap
+     */
+  public void not() {
+    EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
+    long words = 0;
+    while(i.hasNext()) {
+      RunningLengthWord32 rlw = i.next();
+      words += rlw.size();
+      rlw.setRunningBit(! rlw.getRunningBit());
+      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
+        i.buffer()[i.dirtyWords()+j] = ~i.buffer()[i.dirtyWords()+j];
+      }
+    }
+    cardinality = words * wordinbits - cardinality;
+  }
+
+  public EWAHCompressedBitmap32 or(EWAHCompressedBitmap32 a) {
+    EWAHCompressedBitmap32 container = new EWAHCompressedBitmap32();
+    orToContainer(a, container);
+    return container;
+  }
+
+  /**
+   * computes this OR a and writes the result to a container
+   * (e.g., a BitCounter32 if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void orToContainer(EWAHCompressedBitmap32 a, BitmapStorage32 container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeInBits());
+      return;
+    }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord32 rlwi = new BufferedRunningLengthWord32(i.next());
+    BufferedRunningLengthWord32 rlwj = new BufferedRunningLengthWord32( j.next());
+    //RunningLength;
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord32 prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord32 predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      if(!prey.getRunningBit()) {
+        int predatorrl = predator.getRunningLength();
+        int preyrl = prey.getRunningLength();
+        int  tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        container.addStreamOfEmptyWords(predator.getRunningBit(), tobediscarded);
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+      } else {
+        // we have a stream of 1x11
+        int preyrl  = prey.getRunningLength();
+        container.addStreamOfEmptyWords(true, preyrl);
+        predator.discardFirstWords(preyrl);
+        prey.discardFirstWords(preyrl);
+      }
+      int predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        int tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(!predator.getRunningBit()) {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        } else {
+          container.addStreamOfEmptyWords(true, tobediscarded);
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to OR the dirty words
+      int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        int[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k< nbre_dirty_prey;++k) {
+          container.add(ib[dw_i+k] | jb[dw_j+k]);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          discharge(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeInBits(), a.sizeInBits()));
+  }
+
+  /**
+   * computes the exclusive or of the two bitmaps, in one pass
+   * @param a the other bitmap
+   * @return this XOR a
+   */
+  public EWAHCompressedBitmap32 xor(EWAHCompressedBitmap32 a) {
+    EWAHCompressedBitmap32 container = new EWAHCompressedBitmap32();
+    xorToContainer(a, container);
+    return container;
+  }
+
+  /**
+   * computes this XOR a and writes the result to a container
+   * (e.g., a BitCounter32 if only the number of bits is needed)
+   * @param a the other bitmap
+   * @param container where the result goes
+   */
+  public void xorToContainer(EWAHCompressedBitmap32 a, BitmapStorage32 container) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext())) {// hopefully this never happens...
+      container.setSizeInBits(sizeInBits());
+      return;
+    }
+    // at this point, this should be safe:
+    BufferedRunningLengthWord32 rlwi = new BufferedRunningLengthWord32(i.next());
+    BufferedRunningLengthWord32 rlwj = new BufferedRunningLengthWord32(j.next());
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord32 prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord32 predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      int predatorrl = predator.getRunningLength();
+      int preyrl = prey.getRunningLength();
+      int tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+      container.addStreamOfEmptyWords(predator.getRunningBit() != prey.getRunningBit(), tobediscarded);
+      int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+      if(prey.getRunningBit())
+        container.addStreamOfNegatedDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+      else
+        container.addStreamOfDirtyWords(predatorit.buffer(), dw_predator, preyrl - tobediscarded);
+      predator.discardFirstWords(preyrl);
+      prey.discardFirstWords(preyrl);
+      predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+        if(predator.getRunningBit())
+          container.addStreamOfNegatedDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        else
+          container.addStreamOfDirtyWords(preyit.buffer(), dw_prey, tobediscarded);
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      // all that is left to do now is to XOR the dirty words
+      int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        int[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k< nbre_dirty_prey;++k) {
+          container.add(ib[dw_i+k] ^ jb[dw_j+k]);
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) {
+          discharge(rlwj, j, container);
+          break;
+        }
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) {
+          discharge(rlwi, i, container);
+          break;
+        }
+        rlwj.reset(j.next());
+      }
+    }
+    container.setSizeInBits(Math.max(sizeInBits(), a.sizeInBits()));
+  }
+
+  /**
+   * computes the number of bits set in this AND a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the intersection
+   */
+  public int andCardinality(EWAHCompressedBitmap32 a) {
+    BitCounter32 counter = new BitCounter32();
+    andToContainer(a, counter);
+    return counter.getCount();
+  }
+
+  /**
+   * computes the number of bits set in this OR a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the union
+   */
+  public int orCardinality(EWAHCompressedBitmap32 a) {
+    BitCounter32 counter = new BitCounter32();
+    orToContainer(a, counter);
+    return counter.getCount();
+  }
+
+  /**
+   * computes the number of bits set in this XOR a, without building
+   * the result
+   * @param a the other bitmap
+   * @return the cardinality of the symmetric difference
+   */
+  public int xorCardinality(EWAHCompressedBitmap32 a) {
+    BitCounter32 counter = new BitCounter32();
+    xorToContainer(a, counter);
+    return counter.getCount();
+  }
+
+  /**
+   * computes the number of bits set in this AND NOT a, without building
+   * the result
+   * @param a the bitmap to subtract
+   * @return the cardinality of the difference
+   */
+  public int andNotCardinality(EWAHCompressedBitmap32 a) {
+    BitCounter32 counter = new BitCounter32();
+    andNotToContainer(a, counter);
+    return counter.getCount();
+  }
+
+  /**
+   * checks whether the two bitmaps have a set bit in common. This
+   * walks the bitmaps like and() but stops at the first common bit.
+   * @param a the other bitmap
+   * @return true if this AND a is not empty
+   */
+  public boolean intersects(EWAHCompressedBitmap32 a) {
+    EWAHIterator i = a.getEWAHIterator();
+    EWAHIterator j = getEWAHIterator();
+    if(!(i.hasNext() && j.hasNext()))
+      return false;
+    BufferedRunningLengthWord32 rlwi = new BufferedRunningLengthWord32(i.next());
+    BufferedRunningLengthWord32 rlwj = new BufferedRunningLengthWord32(j.next());
+    while (true) {
+      boolean i_is_prey = rlwi.size()<rlwj.size();
+      BufferedRunningLengthWord32 prey = i_is_prey ? rlwi: rlwj;
+      BufferedRunningLengthWord32 predator = i_is_prey ? rlwj: rlwi;
+      EWAHIterator preyit = i_is_prey ? i : j;
+      EWAHIterator predatorit = i_is_prey ? j : i;
+      int preyrl  = prey.getRunningLength();
+      if(prey.getRunningBit() && (preyrl > 0)) {
+        // we have a stream of 1x11
+        int predatorrl  = predator.getRunningLength();
+        int tobediscarded = (predatorrl >= preyrl) ?  preyrl : predatorrl;
+        if(predator.getRunningBit() && (tobediscarded > 0))
+          return true;
+        int dw_predator = predator.dirtywordoffset + predatorit.dirtyWords();
+        if(anyNonZero(predatorit.buffer(), dw_predator, preyrl - tobediscarded))
+          return true;
+      }
+      predator.discardFirstWords(preyrl);
+      prey.discardFirstWords(preyrl);
+      int predatorrl = predator.getRunningLength();
+      if(predatorrl>0){
+        int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+        int tobediscarded = (predatorrl >= nbre_dirty_prey) ? nbre_dirty_prey : predatorrl;
+        if(predator.getRunningBit()) {
+          int dw_prey = prey.dirtywordoffset + preyit.dirtyWords();
+          if(anyNonZero(preyit.buffer(), dw_prey, tobediscarded))
+            return true;
+        }
+        predator.discardFirstWords(tobediscarded);
+        prey.discardFirstWords(tobediscarded);
+      }
+      int nbre_dirty_prey = prey.getNumberOfLiteralWords();
+      if(nbre_dirty_prey > 0) {
+        int[] ib = i.buffer(), jb = j.buffer();
+        int dw_i = rlwi.dirtywordoffset + i.dirtyWords();
+        int dw_j = rlwj.dirtywordoffset + j.dirtyWords();
+        for(int k = 0; k<nbre_dirty_prey;++k) {
+          if((ib[dw_i+k] & jb[dw_j+k]) != 0)
+            return true;
+        }
+        predator.discardFirstWords(nbre_dirty_prey);
+      }
+      if( i_is_prey ) {
+        if(!i.hasNext()) return false;
+        rlwi.reset(i.next());
+      } else {
+        if(!j.hasNext()) return false;
+        rlwj.reset(j.next());
+      }
+    }
+  }
+
+  private static boolean anyNonZero(int[] data, int start, int number) {
+    for(int k = start; k < start + number; ++k)
+      if(data[k] != 0) return true;
+    return false;
+  }
+
+  /**
+   * copies what is left of the current marker word and all the
+   * following ones to the container
+   */
+  private static void discharge(BufferedRunningLengthWord32 initialWord, EWAHIterator iterator, BitmapStorage32 container) {
+    BufferedRunningLengthWord32 runningLengthWord = initialWord;
+    while(true) {
+      container.addStreamOfEmptyWords(runningLengthWord.getRunningBit(), runningLengthWord.getRunningLength());
+      container.addStreamOfDirtyWords(iterator.buffer(), runningLengthWord.dirtywordoffset + iterator.dirtyWords(),
+          runningLengthWord.getNumberOfLiteralWords());
+      if(!iterator.hasNext()) break;
+      runningLengthWord.reset(iterator.next());
+    }
+  }
+
+  /**
+   * appends as many clean 0x00 words as what is left of the current
+   * marker word and all the following ones
+   */
+  private static void dischargeAsEmpty(BufferedRunningLengthWord32 initialWord, EWAHIterator iterator, BitmapStorage32 container) {
+    int number = initialWord.size();
+    while(iterator.hasNext())
+      number += iterator.next().size();
+    container.addStreamOfEmptyWords(false, number);
+  }
+
+  /**
+   * computes the logical or of many bitmaps. The two smallest bitmaps
+   * (by sizeInBytes) are always merged first, as with Huffman coding, so
+   * that the cost grows with the total compressed size of the input times
+   * the logarithm of the number of bitmaps, rather than quadratically.
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the union of all the bitmaps
+   */
+  public static EWAHCompressedBitmap32 or(EWAHCompressedBitmap32... bitmaps) {
+    return aggregate(bitmaps, OR);
+  }
+
+  /**
+   * computes the exclusive or of many bitmaps, merging the smallest
+   * ones first (see or(EWAHCompressedBitmap32...)).
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the bits set in an odd number of the bitmaps
+   */
+  public static EWAHCompressedBitmap32 xor(EWAHCompressedBitmap32... bitmaps) {
+    return aggregate(bitmaps, XOR);
+  }
+
+  /**
+   * computes the logical and of many bitmaps. The bitmaps are processed
+   * from the smallest to the largest (by sizeInBytes) so that the
+   * intermediate results stay small, and we stop as soon as the
+   * intermediate result is empty.
+   *
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the intersection of all the bitmaps
+   */
+  public static EWAHCompressedBitmap32 and(EWAHCompressedBitmap32... bitmaps) {
+    if(bitmaps.length < 2)
+      return copyOfFirst(bitmaps);
+    EWAHCompressedBitmap32[] sorted = bitmaps.clone();
+    Arrays.sort(sorted, BYSIZE);
+    int sizeinbits = 0;
+    for(EWAHCompressedBitmap32 b : sorted)
+      sizeinbits = Math.max(sizeinbits, b.sizeInBits());
+    EWAHCompressedBitmap32 answer = sorted[0].and(sorted[1]);
+    for(int k = 2; (k < sorted.length) && !answer.isEmpty(); ++k)
+      answer = answer.and(sorted[k]);
+    answer.setSizeInBits(sizeinbits);
+    return answer;
+  }
+
+  private static EWAHCompressedBitmap32 aggregate(EWAHCompressedBitmap32[] bitmaps, int operation) {
+    if(bitmaps.length < 2)
+      return copyOfFirst(bitmaps);
+    PriorityQueue<EWAHCompressedBitmap32> pq = new PriorityQueue<EWAHCompressedBitmap32>(bitmaps.length, BYSIZE);
+    for(EWAHCompressedBitmap32 b : bitmaps)
+      pq.add(b);
+    while(pq.size() > 1) {
+      EWAHCompressedBitmap32 x1 = pq.poll();
+      EWAHCompressedBitmap32 x2 = pq.poll();
+      pq.add(operation == OR ? x1.or(x2) : x1.xor(x2));
+    }
+    return pq.poll();
+  }
+
+  private static EWAHCompressedBitmap32 copyOfFirst(EWAHCompressedBitmap32[] bitmaps) {
+    if(bitmaps.length == 0)
+      return new EWAHCompressedBitmap32();
+    try {
+      return (EWAHCompressedBitmap32) bitmaps[0].clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse);
+    }
+  }
+
+  private static final int OR = 0;
+  private static final int XOR = 1;
+  private static final Comparator<EWAHCompressedBitmap32> BYSIZE = new Comparator<EWAHCompressedBitmap32>() {
+    public int compare(EWAHCompressedBitmap32 a, EWAHCompressedBitmap32 b) {
+      return a.sizeInBytes() < b.sizeInBytes() ? -1 : (a.sizeInBytes() == b.sizeInBytes() ? 0 : 1);
+    }
+  };
+
+  /**
+   * checks whether any bit is set, looking only at the marker words
+   * and the literal words (so it is cheaper than cardinality()).
+   * @return true if no bit is set
+   */
+  public boolean isEmpty() {
+    EWAHIterator i = getEWAHIterator();
+    while(i.hasNext()) {
+      RunningLengthWord32 rlw = i.next();
+      if(rlw.getRunningBit() && (rlw.getRunningLength() > 0))
+        return false;
+      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j)
+        if(i.buffer()[i.dirtyWords()+j] != 0)
+          return false;
+    }
+    return true;
+  }
+
+  /**
+   * query the value of a single bit
+   * @param i the position of the bit
+   * @return whether the bit is set
+   */
+  public boolean get(int i) {
+    if((i < 0) || (i >= sizeinbits)) return false;
+    int wordi = i / wordinbits;
+    int pos = 0;
+    EWAHIterator j = getEWAHIterator();
+    while(j.hasNext()) {
+      RunningLengthWord32 rlw = j.next();
+      int rl = rlw.getRunningLength();
+      if(wordi < pos + rl)
+        return rlw.getRunningBit();
+      pos += rl;
+      int nlit = rlw.getNumberOfLiteralWords();
+      if(wordi < pos + nlit)
+        return (j.buffer()[j.dirtyWords() + wordi - pos] & (1 << (i % wordinbits))) != 0;
+      pos += nlit;
+    }
+    return false;
+  }
+
+  /*
+     * set the bit at position i to true, the bits must
+     * be set in increasing order.
+     */
+  public void set(int i) {
+    assert i>= sizeinbits;
+    // must I complete a word?
+    if ( (sizeinbits % 32) != 0) {
+      int possiblesizeinbits = (sizeinbits /32)*32 + 32;
+      if(possiblesizeinbits<i+1) {
+        sizeinbits = possiblesizeinbits;
+      }
+    }
+    addStreamOfEmptyWords(false, (i/32) - sizeinbits/32);
+    int bittoflip = i-(sizeinbits/32 * 32);
+    // next, we set the bit
+    if(( rlw.getNumberOfLiteralWords() == 0) || ((sizeinbits -1)/32 < i/32) ){
+      int newdata = 1<<bittoflip;
+      addLiteralWord(newdata);
+    } else {
+      buffer[actualsizeinwords-1] |= 1<<bittoflip;
+      // check if we just completed a stream of 1s
+      if(buffer[actualsizeinwords-1] == ~0)  {
+        // we remove the last dirty word
+        buffer[actualsizeinwords-1] = 0;
+        --actualsizeinwords;
+        rlw.setNumberOfLiteralWords(rlw.getNumberOfLiteralWords()-1);
+        // next we add one clean word
+        addEmptyWord(true);
+      }
+    }
+    sizeinbits = i+1;
+    ++cardinality;
+  }
+
+  /**
+   * This is normally how you add data to the array. So you add
+   * bits in streams of 32 bits.
+   *
+   * @param newdata newdata
+   * @return the number of words added to the buffer
+   */
+  public int add(int newdata) {
+    return add(newdata,wordinbits);
+  }
+
+  /**
+   * Suppose you want to add a bunch of zeroes or ones?
+   * This is the method you use.
+   *
+   *
+   * @param v v
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  public int addStreamOfEmptyWords(boolean v, int number) {
+    if(number == 0) return 0;
+    boolean noliteralword = (rlw.getNumberOfLiteralWords() == 0);
+    int runlen = rlw.getRunningLength();
+    if( ( noliteralword ) && ( runlen == 0 )) {
+      rlw.setRunningBit(v);
+    }
+    int wordsadded = 0;
+    if( ( noliteralword ) && (rlw.getRunningBit() == v)
+        && (runlen < RunningLengthWord32.largestrunninglengthcount) ) {
+      int whatwecanadd = Math.min(number, RunningLengthWord32.largestrunninglengthcount -runlen);
+      rlw.setRunningLength(runlen+whatwecanadd);
+      sizeinbits += whatwecanadd*wordinbits;
+      if(v) cardinality += whatwecanadd*wordinbits;
+      if(number - whatwecanadd> 0 ) wordsadded += addStreamOfEmptyWords(v, number - whatwecanadd);
+    } else {
+      push_back(0);
+      ++wordsadded;
+      rlw.position = actualsizeinwords - 1;
+      int whatwecanadd = Math.min(number, RunningLengthWord32.largestrunninglengthcount);
+      rlw.setRunningBit(v);
+      rlw.setRunningLength(whatwecanadd);
+      sizeinbits += whatwecanadd*wordinbits;
+      if(v) cardinality += whatwecanadd*wordinbits;
+      if(number - whatwecanadd> 0 ) wordsadded += addStreamOfEmptyWords(v, number - whatwecanadd);
+    }
+    return wordsadded;
+  }
+
+  /**
+   * if you have several words to copy over, this might be faster.
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return ?
+   */
+  public int addStreamOfDirtyWords(int[] data, int start, int number) {
+    if(number == 0) return 0;
+    int NumberOfLiteralWords = rlw.getNumberOfLiteralWords();
+    int whatwecanadd = Math.min(number, RunningLengthWord32.largestliteralcount - NumberOfLiteralWords);
+    rlw.setNumberOfLiteralWords(NumberOfLiteralWords+whatwecanadd);
+    int leftovernumber = number -whatwecanadd;
+//    int oldsize = actualsizeinwords;
+    push_back(data,start,whatwecanadd);
+    sizeinbits += whatwecanadd*wordinbits;
+    int wordsadded = whatwecanadd;
+    if(leftovernumber>0) {
+      push_back(0);
+      rlw.position=actualsizeinwords - 1;
+      ++wordsadded;
+      wordsadded+=addStreamOfDirtyWords(data,start+whatwecanadd, leftovernumber);
+    }
+    return wordsadded;
+  }
+
+  /**
+   * same as addStreamOfDirtyWords, but the words are negated
+   * as they are copied.
+   *
+   * @param data data
+   * @param start start
+   * @param number number
+   * @return the number of words added to the buffer
+   */
+  public int addStreamOfNegatedDirtyWords(int[] data, int start, int number) {
+    if(number == 0) return 0;
+    int NumberOfLiteralWords = rlw.getNumberOfLiteralWords();
+    int whatwecanadd = Math.min(number, RunningLengthWord32.largestliteralcount - NumberOfLiteralWords);
+    rlw.setNumberOfLiteralWords(NumberOfLiteralWords+whatwecanadd);
+    int leftovernumber = number -whatwecanadd;
+    push_back_negated(data,start,whatwecanadd);
+    sizeinbits += whatwecanadd*wordinbits;
+    int wordsadded = whatwecanadd;
+    if(leftovernumber>0) {
+      push_back(0);
+      rlw.position=actualsizeinwords - 1;
+      ++wordsadded;
+      wordsadded+=addStreamOfNegatedDirtyWords(data,start+whatwecanadd, leftovernumber);
+    }
+    return wordsadded;
+  }
+
+  /*
+     * sometimes, at the end, you don't have 32 bits to add,
+     * so use this method instead.
+     &
+     * @returns the number of words added to the buffer
+     */
+  public int add(int  newdata, int bitsthatmatter) {
+    sizeinbits += bitsthatmatter;
+    cardinality += Integer.bitCount(newdata);
+    if(newdata == 0) {
+      return addEmptyWord(false);
+    } else if (newdata == ~0) {
+      return addEmptyWord(true);
+    } else {
+      return addLiteralWord(newdata);
+    }
+  }
+
+  public int sizeInBits() {
+    return sizeinbits;
+  }
+  public void setSizeInBits(int size) {
+    sizeinbits = size;
+  }
+  public int sizeInBytes() {
+    return actualsizeinwords*4;
+  }
+  private void push_back(int data) {
+    if(actualsizeinwords==buffer.length) {
+      int oldbuffer[] = buffer;
+      buffer = new int[oldbuffer.length * 2];
+      System.arraycopy(oldbuffer,0,buffer,0,oldbuffer.length);
+      rlw.array = buffer;
+    }
+    buffer[actualsizeinwords++] = data;
+  }
+
+  private void push_back(int[] data,int start, int number) {
+    reserve(number);
+    System.arraycopy(data,start,buffer,actualsizeinwords,number);
+    for(int k = 0; k < number; ++k)
+      cardinality += Integer.bitCount(data[start+k]);
+    actualsizeinwords+=number;
+  }
+
+  private void push_back_negated(int[] data,int start, int number) {
+    reserve(number);
+    for(int k = 0; k < number; ++k) {
+      buffer[actualsizeinwords+k] = ~data[start+k];
+      cardinality += Integer.bitCount(~data[start+k]);
+    }
+    actualsizeinwords+=number;
+  }
+
+  /**
+   * grows the buffer so that number more words fit
+   */
+  private void reserve(int number) {
+    while(actualsizeinwords + number >=buffer.length) {
+      int oldbuffer[] = buffer;
+      buffer = new int[oldbuffer.length * 2];
+      System.arraycopy(oldbuffer,0,buffer,0,oldbuffer.length);
+      rlw.array = buffer;
+    }
+  }
+
+  private int addEmptyWord(boolean v) {
+    boolean noliteralword = (rlw.getNumberOfLiteralWords() == 0);
+    int runlen = rlw.getRunningLength();
+    if( ( noliteralword ) && ( runlen == 0 )) {
+      rlw.setRunningBit(v);
+    }
+    if( ( noliteralword ) && (rlw.getRunningBit() == v)
+        && (runlen < RunningLengthWord32.largestrunninglengthcount) ) {
+      rlw.setRunningLength(runlen+1);
+      return 0;
+    } else {
+      push_back(0);
+      rlw.position = actualsizeinwords - 1;
+      rlw.setRunningBit(v);
+      rlw.setRunningLength(1);
+      return 1;
+    }
+  }
+
+  private int addLiteralWord(int  newdata) {
+    int numbersofar = rlw.getNumberOfLiteralWords();
+    if(numbersofar >= RunningLengthWord32.largestliteralcount) {
+      push_back(0);
+      rlw.position = actualsizeinwords - 1;
+      rlw.setNumberOfLiteralWords(1);
+      push_back(newdata);
+      return 2;
+    }
+    rlw.setNumberOfLiteralWords(numbersofar + 1);
+    push_back(newdata);
+    return 1;
+  }
+
+
+
+  /**
+   * reports the number of bits set. The count is maintained as the
+   * bitmap is built (by add, addStreamOfEmptyWords, set, not and the
+   * logical operations), so this takes constant time.
+   * @return cardinality
+   */
+  public int cardinality() {
+    return (int) cardinality;
+  }
+
+  /**
+   * counts the bits set in the buffer, one word at a time
+   * @return cardinality
+   */
+  long computeCardinality() {
+    long counter = 0;
+    EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
+    while(i.hasNext()) {
+      RunningLengthWord32 rlw = i.next();
+      if(rlw.getRunningBit()) {
+        counter += wordinbits*rlw.getRunningLength();
+      }
+      for(int j = 0; j<rlw.getNumberOfLiteralWords();++j) {
+        counter += Integer.bitCount(i.buffer()[i.dirtyWords()+j]);
+      }
+    }
+    return counter;
+  }
+
+  public String toString() {
+    StringBuilder ans = new StringBuilder();
+    ans.append(" EWAHCompressedBitmap32, size in words = ").append(actualsizeinwords).append('\n');
+    EWAHIterator i = new EWAHIterator(buffer,actualsizeinwords);
+    while (i.hasNext()) {
+      RunningLengthWord32 rlw = i.next();
+      ans.append(rlw.getRunningLength()).append(rlw.getRunningBit() ? " 1x11\n" : " 0x00\n");
+      ans.append(rlw.getNumberOfLiteralWords()).append(" dirties\n");
+    }
+    return ans.toString();
+  }
+
+  /**
+   * iterate over the positions of the true values,
+   * without boxing them.
+   * @return iterator
+   */
+  public IntIterator intIterator() {
+    return new IntIteratorImpl32(getEWAHIterator());
+  }
+
+  /**
+   * iterate over the positions of the true values.
+   * (intIterator() is faster since it does not box the positions)
+   * @return iterator
+   */
+  public Iterator<Integer> iterator() {
+    final IntIterator under = intIterator();
+    return new Iterator<Integer>() {
+      public boolean 	hasNext() {
+        return under.hasNext();
+      }
+      public Integer 	next() {
+        return under.next();
+      }
+      public void remove() {
+        throw new RuntimeException("not implemented");
+      }
+    };
+  }
+
+  /**
+   * get the locations of the true values as one vector.
+   * (may use more memory than iterator())
+   * @return positionts
+   */
+  public Vector<Integer> getPositions() {
+    Vector<Integer> v = new Vector<Integer>();
+    IntIterator i = intIterator();
+    while(i.hasNext()) {
+      int pos = i.next();
+      if(pos >= sizeinbits) break;
+      v.add(pos);
+    }
+    return v;
+  }
+
+
+  public Object clone() throws java.lang.CloneNotSupportedException {
+    EWAHCompressedBitmap32 clone = (EWAHCompressedBitmap32) super.clone();
+    clone.buffer = this.buffer.clone();
+    clone.actualsizeinwords = this.actualsizeinwords;
+    clone.sizeinbits = this.sizeinbits;
+    clone.rlw = new RunningLengthWord32(clone.buffer, this.rlw.position);
+    return clone;
+  }
+
+  public void	readExternal(ObjectInput in) throws IOException {
+    int size = in.readInt();
+    int words = in.readInt();
+    EWAHCompressedBitmap.checkWordCount(words, Integer.MAX_VALUE);
+    in.readInt(); // the capacity of the writer's buffer: we only need what is used
+    int[] data = new int[Math.min(words, serialchunk)];
+    for(int k = 0; k < words; ++k) {
+      if(k == data.length)
+        data = Arrays.copyOf(data, (int) Math.min(2l * k, words));
+      data[k] = in.readInt();
+    }
+    load(size, data, words);
+  }
+
+  public void	writeExternal(ObjectOutput out) throws IOException  {
+    out.writeInt(sizeinbits);
+    out.writeInt(actualsizeinwords);
+    out.writeInt(buffer.length);
+    for(int k = 0; k< actualsizeinwords; ++k)
+      out.writeInt(buffer[k]);
+  }
+
+  /**
+   * writes the bitmap in a compact format: a header (magic number,
+   * format version, size in bits, number of words, as big-endian ints)
+   * followed by the used words only, as big-endian ints. Unlike
+   * writeExternal, the words are written in bulk.
+   *
+   * @param out where to write
+   * @throws IOException if the output fails
+   */
+  public void serialize(DataOutput out) throws IOException {
+    out.writeInt(serialmagic);
+    out.writeInt(serialversion);
+    out.writeInt(sizeinbits);
+    out.writeInt(actualsizeinwords);
+    byte[] bytes = new byte[Math.min(actualsizeinwords, serialchunk) * 4];
+    IntBuffer chunk = ByteBuffer.wrap(bytes).asIntBuffer();
+    for(int k = 0; k < actualsizeinwords; k += serialchunk) {
+      int number = Math.min(serialchunk, actualsizeinwords - k);
+      chunk.clear();
+      chunk.put(buffer, k, number);
+      out.write(bytes, 0, number * 4);
+    }
+  }
+
+  /**
+   * writes the bitmap in the format of serialize(DataOutput), starting
+   * at the position of the buffer (whatever its byte order), and moves
+   * the position past it
+   *
+   * @param out where to write
+   */
+  public void serialize(ByteBuffer out) {
+    ByteBuffer b = out.slice().order(ByteOrder.BIG_ENDIAN);
+    b.putInt(serialmagic);
+    b.putInt(serialversion);
+    b.putInt(sizeinbits);
+    b.putInt(actualsizeinwords);
+    b.asIntBuffer().put(buffer, 0, actualsizeinwords);
+    out.position(out.position() + serializedSizeInBytes());
+  }
+
+  /**
+   * reads a bitmap written by serialize, replacing the content of this one
+   *
+   * @param in where to read
+   * @throws IOException if the input fails or is not a bitmap we can read
+   */
+  public void deserialize(DataInput in) throws IOException {
+    checkHeader(in.readInt(), in.readInt());
+    int size = in.readInt();
+    int words = in.readInt();
+    EWAHCompressedBitmap.checkWordCount(words, Integer.MAX_VALUE);
+    // the array grows as the words come (see EWAHCompressedBitmap)
+    int[] data = new int[Math.min(words, serialchunk)];
+    byte[] bytes = new byte[Math.min(words, serialchunk) * 4];
+    IntBuffer chunk = ByteBuffer.wrap(bytes).asIntBuffer();
+    for(int k = 0; k < words; k += serialchunk) {
+      int number = Math.min(serialchunk, words - k);
+      if(k + number > data.length)
+        data = Arrays.copyOf(data, (int) Math.min(2l * data.length, words));
+      in.readFully(bytes, 0, number * 4);
+      chunk.clear();
+      chunk.get(data, k, number);
+    }
+    load(size, data, words);
+  }
+
+  /**
+   * reads a bitmap written by serialize, starting at the position of the
+   * buffer, and moves the position past it
+   *
+   * @param in where to read
+   * @throws IOException if this is not a bitmap we can read
+   */
+  public void deserialize(ByteBuffer in) throws IOException {
+    ByteBuffer b = in.slice().order(ByteOrder.BIG_ENDIAN);
+    if(b.remaining() < serialheadersize)
+      throw new IOException("truncated serialized EWAHCompressedBitmap32");
+    checkHeader(b.getInt(), b.getInt());
+    int size = b.getInt();
+    int words = b.getInt();
+    EWAHCompressedBitmap.checkWordCount(words, b.remaining() / 4);
+    int[] data = new int[words];
+    b.asIntBuffer().get(data, 0, words);
+    in.position(in.position() + serialheadersize + words * 4);
+    load(size, data, words);
+  }
+
+  /**
+   * @return how many bytes serialize writes
+   */
+  public int serializedSizeInBytes() {
+    return serialheadersize + actualsizeinwords * 4;
+  }
+
+  static void checkHeader(int magic, int version) throws IOException {
+    if(magic != serialmagic)
+      throw new IOException("not a serialized EWAHCompressedBitmap32");
+    if(version != serialversion)
+      throw new IOException("unsupported serialization format version " + version);
+  }
+
+  /**
+   * replaces the content of the bitmap with words that were read in
+   */
+  private void load(int size, int[] data, int words) throws IOException {
+    if(size < 0)
+      throw new IOException("invalid size in bits: " + size);
+    sizeinbits = size;
+    buffer = data;
+    actualsizeinwords = words;
+    loaded();
+  }
+
+  /**
+   * once the words have been read in: find the last marker word
+   * and recompute what we cache
+   */
+  private void loaded() {
+    int lastmarker = 0;
+    EWAHIterator i = getEWAHIterator();
+    while(i.hasNext()) {
+      lastmarker = i.pointer;
+      i.next();
+    }
+    rlw = new RunningLengthWord32(buffer, lastmarker);
+    cardinality = computeCardinality();
+  }
+
+  static final int serialmagic = 0x45573332; // "EW32"
+  static final int serialversion = 1;
+  static final int serialheadersize = 16;
+  private static final int serialchunk = 1024;
+
+
+  static final int defaultbuffersize = 512;
+  int buffer[] = new int[defaultbuffersize];
+  int actualsizeinwords = 1;
+  int sizeinbits = 0;
+  long cardinality = 0;
+  RunningLengthWord32 rlw = new RunningLengthWord32(buffer,0);
+  public static final int wordinbits = 32;
+
+
+  static class EWAHIterator {
+    RunningLengthWord32 rlw;
+    int size;
+    int pointer;
+
+    public EWAHIterator(int[] a, int sizeinwords) {
+      rlw = new RunningLengthWord32(a,0);
+      size = sizeinwords;
+      pointer = 0;
+    }
+
+    boolean hasNext() {
+      return pointer<size;
+    }
+
+    RunningLengthWord32 next() {
+      rlw.position = pointer;
+      pointer += rlw.getNumberOfLiteralWords() + 1;
+      return rlw;
+    }
+
+    int dirtyWords()  {
+      return pointer-rlw.getNumberOfLiteralWords();
+    }
+
+    int[] buffer() {
+      return rlw.array;
+    }
+
+  }
+}
\ No newline at end of file
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A read-only bitmap over words laid out exactly like
+ * EWAHCompressedBitmap.buffer, but held in a LongBuffer: typically a view
+ * of a MappedByteBuffer, so that a file of bitmaps can be queried without
+ * first copying it to the heap. The logical operations and the iterator
+ * read the words in place; only results are materialized, on the heap.
+ * The other operand of a logical operation may be mapped too, or be an
+ * EWAHCompressedBitmap on the heap.
+ *
+ * The LongBuffer must not be modified while the bitmap is in use.
+ */
+public final class ImmutableEWAHCompressedBitmap {
+
+  /**
+   * @param words the words, from the current position to the limit
+   * @param sizeinbits the size of the bitmap in bits
+   */
+  public ImmutableEWAHCompressedBitmap(LongBuffer words, long sizeinbits) {
+    this.buffer = words.slice();
+    this.actualsizeinwords = this.buffer.remaining();
+    this.sizeinbits = sizeinbits;
+  }
+
+  /**
+   * @param bytes the words (in the byte order of the buffer), from the
+   *   current position to the limit
+   * @param sizeinbits the size of the bitmap in bits
+   */
+  public ImmutableEWAHCompressedBitmap(ByteBuffer bytes, long sizeinbits) {
+    this(bytes.asLongBuffer(), sizeinbits);
+  }
+
+  /**
+   * maps a bitmap written by EWAHCompressedBitmap.serialize, starting
+   * at the position of the buffer, without copying its words. The
+   * position is moved past the bitmap, so that consecutive bitmaps
+   * can be mapped one after the other from the same (e.g. memory-mapped)
+   * buffer.
+   *
+   * @param in where the serialized bitmap is
+   * @return a view over the words in the buffer
+   * @throws IOException if this is not a bitmap we can read
+   */
+  public static ImmutableEWAHCompressedBitmap map(ByteBuffer in) throws IOException {
+    ByteBuffer b = in.slice().order(ByteOrder.BIG_ENDIAN);
+    if(b.remaining() < EWAHCompressedBitmap.serialheadersize)
+      throw new IOException("truncated serialized EWAHCompressedBitmap");
+    EWAHCompressedBitmap.checkHeader(b.getInt(), b.getInt());
+    long sizeinbits = b.getLong();
+    int words = b.getInt();
+    EWAHCompressedBitmap.checkWordCount(words, b.remaining() / 8);
+    if(sizeinbits < 0)
+      throw new IOException("invalid size in bits: " + sizeinbits);
+    int size = EWAHCompressedBitmap.serialheadersize + words * 8;
+    b.limit(size);
+    ImmutableEWAHCompressedBitmap answer = new ImmutableEWAHCompressedBitmap(b.asLongBuffer(), sizeinbits);
+    in.position(in.position() + size);
+    return answer;
+  }
+
+  /**
+   * @return a cursor over the compressed words, for IteratorUtil
+   */
+  public IteratingRLW getIteratingRLW() {
+    return new IteratingBufferedRunningLengthWord(buffer, actualsizeinwords);
+  }
+
+  /**
+   * @param a another mapped bitmap
+   * @return this AND a, on the heap
+   */
+  public EWAHCompressedBitmap and(ImmutableEWAHCompressedBitmap a) {
+    return combine(IteratorUtil.AND, a.getIteratingRLW(), a.sizeinbits);
+  }
+
+  /**
+   * @param a a bitmap on the heap (it does not need to be copied first)
+   * @return this AND a, on the heap
+   */
+  public EWAHCompressedBitmap and(EWAHCompressedBitmap a) {
+    return combine(IteratorUtil.AND, a.getIteratingRLW(), a.sizeInBitsAsLong());
+  }
+
+  /**
+   * @param a another mapped bitmap
+   * @return this OR a, on the heap
+   */
+  public EWAHCompressedBitmap or(ImmutableEWAHCompressedBitmap a) {
+    return combine(IteratorUtil.OR, a.getIteratingRLW(), a.sizeinbits);
+  }
+
+  /**
+   * @param a a bitmap on the heap (it does not need to be copied first)
+   * @return this OR a, on the heap
+   */
+  public EWAHCompressedBitmap or(EWAHCompressedBitmap a) {
+    return combine(IteratorUtil.OR, a.getIteratingRLW(), a.sizeInBitsAsLong());
+  }
+
+  /**
+   * @param a another mapped bitmap
+   * @return this XOR a, on the heap
+   */
+  public EWAHCompressedBitmap xor(ImmutableEWAHCompressedBitmap a) {
+    return combine(IteratorUtil.XOR, a.getIteratingRLW(), a.sizeinbits);
+  }
+
+  /**
+   * @param a a bitmap on the heap (it does not need to be copied first)
+   * @return this XOR a, on the heap
+   */
+  public EWAHCompressedBitmap xor(EWAHCompressedBitmap a) {
+    return combine(IteratorUtil.XOR, a.getIteratingRLW(), a.sizeInBitsAsLong());
+  }
+
+  /**
+   * @param a another mapped bitmap
+   * @return this AND NOT a, on the heap
+   */
+  public EWAHCompressedBitmap andNot(ImmutableEWAHCompressedBitmap a) {
+    return combine(IteratorUtil.ANDNOT, a.getIteratingRLW(), a.sizeinbits);
+  }
+
+  /**
+   * @param a a bitmap on the heap (it does not need to be copied first)
+   * @return this AND NOT a, on the heap
+   */
+  public EWAHCompressedBitmap andNot(EWAHCompressedBitmap a) {
+    return combine(IteratorUtil.ANDNOT, a.getIteratingRLW(), a.sizeInBitsAsLong());
+  }
+
+  private EWAHCompressedBitmap combine(int operation, IteratingRLW a, long asizeinbits) {
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap();
+    IteratingRLW i = getIteratingRLW();
+    switch(operation) {
+      case IteratorUtil.AND: IteratorUtil.and(i, a, container); break;
+      case IteratorUtil.OR: IteratorUtil.or(i, a, container); break;
+      case IteratorUtil.XOR: IteratorUtil.xor(i, a, container); break;
+      default: IteratorUtil.andNot(i, a, container);
+    }
+    container.setSizeInBits(Math.max(sizeinbits, asizeinbits));
+    return container;
+  }
+
+  /**
+   * reports the number of bits set (computed once, then remembered)
+   * @return cardinality
+   * @throws ArithmeticException if 2^31 bits or more are set
+   *   (use cardinalityAsLong)
+   */
+  public int cardinality() {
+    return Math.toIntExact(cardinalityAsLong());
+  }
+
+  /**
+   * @return the number of bits set, which may be 2^31 or more
+   */
+  public long cardinalityAsLong() {
+    long answer = cardinality;
+    if(answer < 0) {
+      answer = IteratorUtil.cardinalityAsLong(getIteratingRLW());
+      cardinality = answer;
+    }
+    return answer;
+  }
+
+  /**
+   * iterate over the positions of the true values.
+   * @return iterator
+   */
+  public IntIterator intIterator() {
+    return new IntIteratorOverIteratingRLW(getIteratingRLW());
+  }
+
+  /**
+   * copies the bitmap to the heap
+   * @return a (mutable) copy
+   */
+  public EWAHCompressedBitmap toEWAHCompressedBitmap() {
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap();
+    IteratorUtil.materialize(getIteratingRLW(), container);
+    container.setSizeInBits(sizeinbits);
+    return container;
+  }
+
+  /**
+   * @return the size in bits
+   * @throws ArithmeticException if the bitmap is longer than 2^31-1 bits
+   *   (use sizeInBitsAsLong)
+   */
+  public int sizeInBits() {
+    return Math.toIntExact(sizeinbits);
+  }
+
+  /**
+   * @return the size in bits, which may be more than 2^31-1
+   */
+  public long sizeInBitsAsLong() {
+    return sizeinbits;
+  }
+
+  public int sizeInBytes() {
+    return actualsizeinwords * 8;
+  }
+
+  private final LongBuffer buffer;
+  private final int actualsizeinwords;
+  private final long sizeinbits;
+  private volatile long cardinality = -1;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * Where the OperationListener is installed. Without a listener (the
+ * default), an operation only reads one static field more: the clock is
+ * not read and nothing is allocated.
+ *
+ * and, or, xor, andNot (and their Into variants), not, getPositions and
+ * the deserialization methods (readExternal, deserialize) are reported.
+ * Lazy iterators are not: their time is mixed with the work of the caller.
+ */
+public final class Instrumentation {
+
+  private Instrumentation() {}
+
+  /**
+   * @param l the listener, or null to stop the reports
+   */
+  public static void setListener(OperationListener l) {
+    listener = l;
+  }
+
+  /**
+   * @return the listener, or null
+   */
+  public static OperationListener getListener() {
+    return listener;
+  }
+
+  /**
+   * @param operation AND, OR...
+   * @return its name
+   */
+  public static String name(int operation) {
+    switch(operation) {
+      case AND: return "and";
+      case OR: return "or";
+      case XOR: return "xor";
+      case ANDNOT: return "andNot";
+      case NOT: return "not";
+      case DESERIALIZE: return "deserialize";
+      case ITERATE: return "iterate";
+      default: return "unknown";
+    }
+  }
+
+  /**
+   * @return the time the operation starts, or disabled
+   */
+  static long start() {
+    return (listener == null) ? disabled : System.nanoTime();
+  }
+
+  /**
+   * reports an operation to the listener, if there was one when it started
+   * @param previousbuffer the buffer of the result before the operation
+   *   (null for a new bitmap), to tell whether a buffer was allocated
+   */
+  static void done(int operation, long start, long inputwords, EWAHCompressedBitmap result, long[] previousbuffer) {
+    if(start == disabled) return;
+    OperationListener l = listener;
+    if(l == null) return;
+    long allocatedbytes = (result.buffer != previousbuffer) ? result.buffer.length * 8l : 0;
+    l.operationDone(operation, System.nanoTime() - start, inputwords, result.actualsizeinwords, allocatedbytes);
+  }
+
+  /**
+   * reports an operation that gives no bitmap (see OperationListener)
+   */
+  static void done(int operation, long start, long inputwords, long outputwords) {
+    if(start == disabled) return;
+    OperationListener l = listener;
+    if(l == null) return;
+    l.operationDone(operation, System.nanoTime() - start, inputwords, outputwords, 0);
+  }
+
+  public static final int AND = 0;
+  public static final int OR = 1;
+  public static final int XOR = 2;
+  public static final int ANDNOT = 3;
+  public static final int NOT = 4;
+  public static final int DESERIALIZE = 5;
+  public static final int ITERATE = 6;
+  private static final long disabled = Long.MIN_VALUE;
+  private static volatile OperationListener listener = null;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * Iterates over the positions of the set bits in increasing order,
+ * without boxing them.
+ */
+public interface IntIterator {
+
+  /**
+   * @return whether there is another position
+   */
+  boolean hasNext();
+
+  /**
+   * @return the next position
+   * @throws java.util.NoSuchElementException if there is none
+   * @throws ArithmeticException if the position is 2^31 or more (see
+   *   EWAHCompressedBitmap.longIterator)
+   */
+  int next();
+
+  /**
+   * copies as many of the next positions as fit in out
+   *
+   * @param out where to write the positions
+   * @return how many positions were written (0 when we are done)
+   * @throws ArithmeticException if a position is 2^31 or more
+   */
+  int nextBatch(int[] out);
+}
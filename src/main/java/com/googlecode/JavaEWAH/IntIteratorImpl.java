@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.NoSuchElementException;
+
+/**
+ * The IntIterator of EWAHCompressedBitmap. Runs of ones are walked
+ * lazily (we only remember where they end) and literal words are
+ * decoded one set bit at a time with Long.numberOfTrailingZeros, so
+ * nothing is allocated once the iterator exists.
+ */
+final class IntIteratorImpl implements IntIterator {
+
+  IntIteratorImpl(EWAHCompressedBitmap.EWAHIterator i) {
+    this.i = i;
+    this.buffer = i.buffer();
+    this.hasnext = moveToNext();
+  }
+
+  public boolean hasNext() {
+    return hasnext;
+  }
+
+  public int next() {
+    return Math.toIntExact(nextLong());
+  }
+
+  /**
+   * @return the next position, as a long (see LongIterator)
+   */
+  long nextLong() {
+    if(!hasnext)
+      throw new NoSuchElementException();
+    long answer;
+    if(runposition < runend) {
+      answer = runposition++;
+    } else {
+      answer = wordposition + Long.numberOfTrailingZeros(word);
+      word &= word - 1;
+    }
+    hasnext = moveToNext();
+    return answer;
+  }
+
+  public int nextBatch(int[] out) {
+    int n = 0;
+    while(hasnext && (n < out.length)) {
+      if(runposition < runend) {
+        int howmany = (int) Math.min(out.length - n, runend - runposition);
+        for(int k = 0; k < howmany; ++k)
+          out[n++] = Math.toIntExact(runposition++);
+      } else {
+        while((word != 0) && (n < out.length)) {
+          out[n++] = Math.toIntExact(wordposition + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      hasnext = moveToNext();
+    }
+    return n;
+  }
+
+  /**
+   * same as nextBatch(int[]), but for long positions
+   */
+  int nextBatch(long[] out) {
+    int n = 0;
+    while(hasnext && (n < out.length)) {
+      if(runposition < runend) {
+        int howmany = (int) Math.min(out.length - n, runend - runposition);
+        for(int k = 0; k < howmany; ++k)
+          out[n++] = runposition++;
+      } else {
+        while((word != 0) && (n < out.length)) {
+          out[n++] = wordposition + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+        }
+      }
+      hasnext = moveToNext();
+    }
+    return n;
+  }
+
+  /**
+   * moves to the next run of ones or the next non-zero literal word
+   * @return false if there is none
+   */
+  private boolean moveToNext() {
+    while(true) {
+      if(runposition < runend) return true;
+      if(word != 0) return true;
+      if(literalposition < literalend) {
+        word = buffer[literalposition++];
+        wordposition = position;
+        position += EWAHCompressedBitmap.wordinbits;
+        continue;
+      }
+      if(!i.hasNext()) return false;
+      RunningLengthWord rlw = i.next();
+      long runlength = rlw.getRunningLength() * EWAHCompressedBitmap.wordinbits;
+      if(rlw.getRunningBit()) {
+        runposition = position;
+        runend = position + runlength;
+      }
+      position += runlength;
+      literalposition = i.dirtyWords();
+      literalend = literalposition + (int) rlw.getNumberOfLiteralWords();
+    }
+  }
+
+  private final EWAHCompressedBitmap.EWAHIterator i;
+  private final long[] buffer;
+  private boolean hasnext;
+  // position of the first bit of the next word to decode
+  private long position = 0;
+  // the run of ones being walked: [runposition, runend)
+  private long runposition = 0;
+  private long runend = 0;
+  // what is left of the literal word being decoded, and where it starts
+  private long word = 0;
+  private long wordposition = 0;
+  // the literal words of the current marker word still to decode
+  private int literalposition = 0;
+  private int literalend = 0;
+}
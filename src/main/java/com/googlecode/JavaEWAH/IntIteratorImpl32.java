@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.NoSuchElementException;
+
+/**
+ * The IntIterator of EWAHCompressedBitmap32. Runs of ones are walked
+ * lazily (we only remember where they end) and literal words are
+ * decoded one set bit at a time with Integer.numberOfTrailingZeros, so
+ * nothing is allocated once the iterator exists.
+ */
+final class IntIteratorImpl32 implements IntIterator {
+
+  IntIteratorImpl32(EWAHCompressedBitmap32.EWAHIterator i) {
+    this.i = i;
+    this.buffer = i.buffer();
+    this.hasnext = moveToNext();
+  }
+
+  public boolean hasNext() {
+    return hasnext;
+  }
+
+  public int next() {
+    if(!hasnext)
+      throw new NoSuchElementException();
+    int answer;
+    if(runposition < runend) {
+      answer = (int) runposition++;
+    } else {
+      answer = (int) (wordposition + Integer.numberOfTrailingZeros(word));
+      word &= word - 1;
+    }
+    hasnext = moveToNext();
+    return answer;
+  }
+
+  public int nextBatch(int[] out) {
+    int n = 0;
+    while(hasnext && (n < out.length)) {
+      if(runposition < runend) {
+        int howmany = (int) Math.min(out.length - n, runend - runposition);
+        for(int k = 0; k < howmany; ++k)
+          out[n++] = (int) runposition++;
+      } else {
+        while((word != 0) && (n < out.length)) {
+          out[n++] = (int) (wordposition + Integer.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      hasnext = moveToNext();
+    }
+    return n;
+  }
+
+  /**
+   * moves to the next run of ones or the next non-zero literal word
+   * @return false if there is none
+   */
+  private boolean moveToNext() {
+    while(true) {
+      if(runposition < runend) return true;
+      if(word != 0) return true;
+      if(literalposition < literalend) {
+        word = buffer[literalposition++];
+        wordposition = position;
+        position += EWAHCompressedBitmap32.wordinbits;
+        continue;
+      }
+      if(!i.hasNext()) return false;
+      RunningLengthWord32 rlw = i.next();
+      long runlength = rlw.getRunningLength() * EWAHCompressedBitmap32.wordinbits;
+      if(rlw.getRunningBit()) {
+        runposition = position;
+        runend = position + runlength;
+      }
+      position += runlength;
+      literalposition = i.dirtyWords();
+      literalend = literalposition + rlw.getNumberOfLiteralWords();
+    }
+  }
+
+  private final EWAHCompressedBitmap32.EWAHIterator i;
+  private final int[] buffer;
+  private boolean hasnext;
+  // position of the first bit of the next word to decode
+  private long position = 0;
+  // the run of ones being walked: [runposition, runend)
+  private long runposition = 0;
+  private long runend = 0;
+  // what is left of the literal word being decoded, and where it starts
+  private int word = 0;
+  private long wordposition = 0;
+  // the literal words of the current marker word still to decode
+  private int literalposition = 0;
+  private int literalend = 0;
+}
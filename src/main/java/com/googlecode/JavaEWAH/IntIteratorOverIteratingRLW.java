@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.NoSuchElementException;
+/**
+ * An IntIterator over any IteratingRLW: runs of ones are walked
+ * lazily and literal words are decoded one set bit at a time, as in
+ * IntIteratorImpl.
+ */
+final class IntIteratorOverIteratingRLW implements IntIterator {
+
+  IntIteratorOverIteratingRLW(IteratingRLW parent) {
+    this.parent = parent;
+    this.hasnext = moveToNext();
+  }
+
+  public boolean hasNext() {
+    return hasnext;
+  }
+
+  public int next() {
+    if(!hasnext)
+      throw new NoSuchElementException();
+    int answer;
+    if(runposition < runend) {
+      answer = Math.toIntExact(runposition++);
+    } else {
+      answer = Math.toIntExact(wordposition + Long.numberOfTrailingZeros(word));
+      word &= word - 1;
+    }
+    hasnext = moveToNext();
+    return answer;
+  }
+
+  public int nextBatch(int[] out) {
+    int n = 0;
+    while(hasnext && (n < out.length)) {
+      if(runposition < runend) {
+        int howmany = (int) Math.min(out.length - n, runend - runposition);
+        for(int k = 0; k < howmany; ++k)
+          out[n++] = Math.toIntExact(runposition++);
+      } else {
+        while((word != 0) && (n < out.length)) {
+          out[n++] = Math.toIntExact(wordposition + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      hasnext = moveToNext();
+    }
+    return n;
+  }
+
+  private boolean moveToNext() {
+    while(true) {
+      if(runposition < runend) return true;
+      if(word != 0) return true;
+      if(literalindex < literalcount) {
+        word = parent.getLiteralWordAt(literalindex++);
+        wordposition = position;
+        position += EWAHCompressedBitmap.wordinbits;
+        continue;
+      }
+      if(loaded) {
+        // we are done with this marker word
+        parent.discardFirstWords(runlength + literalcount);
+        loaded = false;
+      }
+      if(parent.size() == 0) return false;
+      runlength = parent.getRunningLength();
+      if(parent.getRunningBit()) {
+        runposition = position;
+        runend = position + runlength * EWAHCompressedBitmap.wordinbits;
+      }
+      position += runlength * EWAHCompressedBitmap.wordinbits;
+      literalcount = parent.getNumberOfLiteralWords();
+      literalindex = 0;
+      loaded = true;
+    }
+  }
+
+  private final IteratingRLW parent;
+  private boolean hasnext;
+  private long position = 0;
+  private long runposition = 0;
+  private long runend = 0;
+  private long word = 0;
+  private long wordposition = 0;
+  // the marker word being decoded
+  private boolean loaded = false;
+  private long runlength = 0;
+  private int literalindex = 0;
+  private int literalcount = 0;
+}
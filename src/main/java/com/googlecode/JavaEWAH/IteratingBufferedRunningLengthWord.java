@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.nio.LongBuffer;
+
+/**
+ * The IteratingRLW over words stored as in EWAHCompressedBitmap.buffer,
+ * read through a LongBuffer: either the heap array of a bitmap, or
+ * any other (direct, memory-mapped...) buffer laid out the same way.
+ */
+final class IteratingBufferedRunningLengthWord implements IteratingRLW {
+
+  /**
+   * @param buffer the words, starting at index 0
+   * @param sizeinwords how many words are used
+   */
+  IteratingBufferedRunningLengthWord(LongBuffer buffer, int sizeinwords) {
+    this(buffer, sizeinwords, null);
+  }
+
+  /**
+   * @param buffer the words, starting at index 0
+   * @param sizeinwords how many words are used
+   * @param owner the off-heap bitmap whose memory holds the words (the
+   *   cursor then checks that it is still open before each read), or null
+   */
+  IteratingBufferedRunningLengthWord(LongBuffer buffer, int sizeinwords, DirectEWAHCompressedBitmap owner) {
+    this.buffer = buffer;
+    this.sizeinwords = sizeinwords;
+    this.owner = owner;
+    next();
+  }
+
+  public boolean next() {
+    if(owner != null) owner.checkOpen();
+    while(pointer < sizeinwords) {
+      brlw.reset(buffer.get(pointer));
+      literalstart = pointer + 1;
+      pointer += 1 + (int) brlw.getNumberOfLiteralWords();
+      if(brlw.size() > 0) return true;
+    }
+    brlw.reset(0);
+    return false;
+  }
+
+  public long getLiteralWordAt(int index) {
+    if(owner != null) owner.checkOpen();
+    return buffer.get(literalstart + brlw.dirtywordoffset + index);
+  }
+
+  public int getNumberOfLiteralWords() {
+    return (int) brlw.getNumberOfLiteralWords();
+  }
+
+  public boolean getRunningBit() {
+    return brlw.getRunningBit();
+  }
+
+  public long getRunningLength() {
+    return brlw.getRunningLength();
+  }
+
+  public long size() {
+    return brlw.size();
+  }
+
+  public void discardFirstWords(long x) {
+    while(x > 0) {
+      long rl = brlw.getRunningLength();
+      if(rl > x) {
+        brlw.setRunningLength(rl - x);
+        return;
+      }
+      x -= rl;
+      brlw.setRunningLength(0);
+      long nlit = brlw.getNumberOfLiteralWords();
+      long todiscard = (x > nlit) ? nlit : x;
+      brlw.setNumberOfLiteralWords(nlit - todiscard);
+      brlw.dirtywordoffset += todiscard;
+      x -= todiscard;
+      if((x > 0) || (brlw.size() == 0)) {
+        if(!next()) break;
+      }
+    }
+  }
+
+  /**
+   * copies the next number literal words to the container, in bulk
+   * when the words live in a heap array
+   */
+  void writeLiteralWords(int number, BitmapStorage container, boolean negated) {
+    if(owner != null) owner.checkOpen();
+    int start = literalstart + brlw.dirtywordoffset;
+    if(buffer.hasArray()) {
+      if(negated)
+        container.addStreamOfNegatedDirtyWords(buffer.array(), buffer.arrayOffset() + start, number);
+      else
+        container.addStreamOfDirtyWords(buffer.array(), buffer.arrayOffset() + start, number);
+    } else {
+      // e.g., a direct buffer: the words go through a small array, so
+      // that they are still added in bulk
+      if(scratch == null)
+        scratch = new long[scratchsize];
+      for(int done = 0; done < number; ) {
+        int n = Math.min(number - done, scratch.length);
+        for(int k = 0; k < n; ++k)
+          scratch[k] = buffer.get(start + done + k);
+        if(negated)
+          container.addStreamOfNegatedDirtyWords(scratch, 0, n);
+        else
+          container.addStreamOfDirtyWords(scratch, 0, n);
+        done += n;
+      }
+    }
+  }
+
+  private final LongBuffer buffer;
+  private final int sizeinwords;
+  private final DirectEWAHCompressedBitmap owner;
+  // where the next marker word is
+  private int pointer = 0;
+  // where the literal words of the current marker word start
+  private int literalstart = 0;
+  private final BufferedRunningLengthWord brlw = new BufferedRunningLengthWord(0);
+  private long[] scratch = null;
+  private static final int scratchsize = 256;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * A cursor over the marker words of a bitmap, in the compressed form.
+ * Discarding words moves on to the following marker words as needed,
+ * so the logical operations (see IteratorUtil) only have to look at the
+ * current marker word: once size() is zero, the bitmap is exhausted.
+ */
+public interface IteratingRLW {
+
+  /**
+   * moves to the next non-empty marker word, dropping what is left
+   * of the current one
+   * @return false if there is none (then size() is zero)
+   */
+  boolean next();
+
+  /**
+   * @param index index of the literal word, from 0 to getNumberOfLiteralWords()-1
+   * @return the literal word
+   */
+  long getLiteralWordAt(int index);
+
+  /**
+   * @return the number of literal words left in the current marker word
+   */
+  int getNumberOfLiteralWords();
+
+  /**
+   * @return the value of the clean words of the current marker word
+   */
+  boolean getRunningBit();
+
+  /**
+   * @return the number of clean words left in the current marker word
+   */
+  long getRunningLength();
+
+  /**
+   * @return the number of words (clean and literal) left in the current marker word
+   */
+  long size();
+
+  /**
+   * drops the next x words (clean words first, then literal words),
+   * moving to the following marker words as needed
+   * @param x number of words
+   */
+  void discardFirstWords(long x);
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * Logical operations over IteratingRLW cursors, whatever the storage
+ * behind them. The result is written to a BitmapStorage; the caller
+ * sets its size in bits. The cursors are consumed.
+ *
+ * The operations can also be lazy: and(i, j), or(i, j), xor(i, j),
+ * andNot(i, j) and not(i) return a cursor over the result, computed
+ * a few hundred words at a time as it is read. Such cursors can be fed to
+ * other operations, so that a whole expression, e.g.
+ * andNot(or(a, b), or(c, d)), is evaluated in one pass without any
+ * intermediate bitmap, then materialized, counted or iterated over.
+ */
+public final class IteratorUtil {
+
+  private IteratorUtil() {}
+
+  /**
+   * @param i first cursor
+   * @param j second cursor
+   * @return a cursor over the logical and of the two (computed as it is read)
+   */
+  public static IteratingRLW and(IteratingRLW i, IteratingRLW j) {
+    return new BufferedIteratingRLW(AND, i, j);
+  }
+
+  /**
+   * @param i first cursor
+   * @param j second cursor
+   * @return a cursor over the logical or of the two (computed as it is read)
+   */
+  public static IteratingRLW or(IteratingRLW i, IteratingRLW j) {
+    return new BufferedIteratingRLW(OR, i, j);
+  }
+
+  /**
+   * @param i first cursor
+   * @param j second cursor
+   * @return a cursor over the exclusive or of the two (computed as it is read)
+   */
+  public static IteratingRLW xor(IteratingRLW i, IteratingRLW j) {
+    return new BufferedIteratingRLW(XOR, i, j);
+  }
+
+  /**
+   * @param i first cursor
+   * @param j second cursor (the one negated)
+   * @return a cursor over i AND NOT j (computed as it is read)
+   */
+  public static IteratingRLW andNot(IteratingRLW i, IteratingRLW j) {
+    return new BufferedIteratingRLW(ANDNOT, i, j);
+  }
+
+  /**
+   * @param i a cursor
+   * @return a cursor over the negation of i, word by word (so the bits
+   *   past the size in bits of the last word are set too, as with
+   *   EWAHCompressedBitmap.not())
+   */
+  public static IteratingRLW not(IteratingRLW i) {
+    return new NegatedIteratingRLW(i);
+  }
+
+  /**
+   * @param i a cursor
+   * @return an iterator over the positions of the bits set in what is
+   *   left of the cursor
+   */
+  public static IntIterator intIterator(IteratingRLW i) {
+    return new IntIteratorOverIteratingRLW(i);
+  }
+
+  static final int AND = 0;
+  static final int OR = 1;
+  static final int XOR = 2;
+  static final int ANDNOT = 3;
+  static final int unbounded = Integer.MAX_VALUE;
+
+  /**
+   * one round of an operation (see andStep)
+   */
+  static void step(int operation, IteratingRLW i, IteratingRLW j, BitmapStorage container, int maxwords) {
+    switch(operation) {
+      case AND: andStep(i, j, container, maxwords); break;
+      case OR: orStep(i, j, container, maxwords); break;
+      case XOR: xorStep(i, j, container, maxwords); break;
+      default: andNotStep(i, j, container, maxwords);
+    }
+  }
+
+  /**
+   * @return how many more words a bitmap that is filled up to maxwords
+   *   words (see BufferedIteratingRLW) can take; other containers are
+   *   never full
+   */
+  private static int room(BitmapStorage container, int maxwords) {
+    if((maxwords == unbounded) || !(container instanceof EWAHCompressedBitmap))
+      return unbounded;
+    return maxwords - ((EWAHCompressedBitmap) container).actualsizeinwords;
+  }
+
+  /**
+   * writes the logical and of the two cursors to the container
+   * @param i first cursor
+   * @param j second cursor
+   * @param container where the result goes
+   */
+  public static void and(IteratingRLW i, IteratingRLW j, BitmapStorage container) {
+    while((i.size() > 0) && (j.size() > 0))
+      andStep(i, j, container, unbounded);
+    dischargeAsEmpty(i, container);
+    dischargeAsEmpty(j, container);
+  }
+
+  /**
+   * one round of and: the clean words of the two cursors, then the
+   * literal words they have in common. The round stops early once the
+   * container holds maxwords words (a bitmap only; use unbounded
+   * otherwise), so that a chunk of a lazy result stays small whatever
+   * the length of the runs and literal stretches of the operands.
+   */
+  static void andStep(IteratingRLW i, IteratingRLW j, BitmapStorage container, int maxwords) {
+    while((i.getRunningLength() > 0) || (j.getRunningLength() > 0)) {
+      if(room(container, maxwords) <= 0) return;
+      boolean i_is_prey = i.getRunningLength() < j.getRunningLength();
+      IteratingRLW prey = i_is_prey ? i : j;
+      IteratingRLW predator = i_is_prey ? j : i;
+      long predatorrl = predator.getRunningLength();
+      if(!predator.getRunningBit()) {
+        container.addStreamOfEmptyWords(false, predatorrl);
+        prey.discardFirstWords(predatorrl);
+      } else {
+        long index = discharge(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(false, predatorrl - index);
+      }
+      predator.discardFirstWords(predatorrl);
+    }
+    int nbre_literal = Math.min(Math.min(i.getNumberOfLiteralWords(), j.getNumberOfLiteralWords()),
+        room(container, maxwords));
+    if(nbre_literal > 0) {
+      for(int k = 0; k < nbre_literal; ++k)
+        container.add(i.getLiteralWordAt(k) & j.getLiteralWordAt(k));
+      i.discardFirstWords(nbre_literal);
+      j.discardFirstWords(nbre_literal);
+    }
+  }
+
+  /**
+   * writes the logical or of the two cursors to the container
+   * @param i first cursor
+   * @param j second cursor
+   * @param container where the result goes
+   */
+  public static void or(IteratingRLW i, IteratingRLW j, BitmapStorage container) {
+    while((i.size() > 0) && (j.size() > 0))
+      orStep(i, j, container, unbounded);
+    discharge(i, container, Long.MAX_VALUE);
+    discharge(j, container, Long.MAX_VALUE);
+  }
+
+  /**
+   * one round of or: the clean words of the two cursors, then the
+   * literal words they have in common
+   */
+  static void orStep(IteratingRLW i, IteratingRLW j, BitmapStorage container, int maxwords) {
+    while((i.getRunningLength() > 0) || (j.getRunningLength() > 0)) {
+      if(room(container, maxwords) <= 0) return;
+      boolean i_is_prey = i.getRunningLength() < j.getRunningLength();
+      IteratingRLW prey = i_is_prey ? i : j;
+      IteratingRLW predator = i_is_prey ? j : i;
+      long predatorrl = predator.getRunningLength();
+      if(predator.getRunningBit()) {
+        container.addStreamOfEmptyWords(true, predatorrl);
+        prey.discardFirstWords(predatorrl);
+      } else {
+        long index = discharge(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(false, predatorrl - index);
+      }
+      predator.discardFirstWords(predatorrl);
+    }
+    int nbre_literal = Math.min(Math.min(i.getNumberOfLiteralWords(), j.getNumberOfLiteralWords()),
+        room(container, maxwords));
+    if(nbre_literal > 0) {
+      for(int k = 0; k < nbre_literal; ++k)
+        container.add(i.getLiteralWordAt(k) | j.getLiteralWordAt(k));
+      i.discardFirstWords(nbre_literal);
+      j.discardFirstWords(nbre_literal);
+    }
+  }
+
+  /**
+   * writes the exclusive or of the two cursors to the container
+   * @param i first cursor
+   * @param j second cursor
+   * @param container where the result goes
+   */
+  public static void xor(IteratingRLW i, IteratingRLW j, BitmapStorage container) {
+    while((i.size() > 0) && (j.size() > 0))
+      xorStep(i, j, container, unbounded);
+    discharge(i, container, Long.MAX_VALUE);
+    discharge(j, container, Long.MAX_VALUE);
+  }
+
+  /**
+   * one round of xor: the clean words of the two cursors, then the
+   * literal words they have in common
+   */
+  static void xorStep(IteratingRLW i, IteratingRLW j, BitmapStorage container, int maxwords) {
+    while((i.getRunningLength() > 0) || (j.getRunningLength() > 0)) {
+      if(room(container, maxwords) <= 0) return;
+      boolean i_is_prey = i.getRunningLength() < j.getRunningLength();
+      IteratingRLW prey = i_is_prey ? i : j;
+      IteratingRLW predator = i_is_prey ? j : i;
+      long predatorrl = predator.getRunningLength();
+      if(predator.getRunningBit()) {
+        long index = dischargeNegated(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(true, predatorrl - index);
+      } else {
+        long index = discharge(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(false, predatorrl - index);
+      }
+      predator.discardFirstWords(predatorrl);
+    }
+    int nbre_literal = Math.min(Math.min(i.getNumberOfLiteralWords(), j.getNumberOfLiteralWords()),
+        room(container, maxwords));
+    if(nbre_literal > 0) {
+      for(int k = 0; k < nbre_literal; ++k)
+        container.add(i.getLiteralWordAt(k) ^ j.getLiteralWordAt(k));
+      i.discardFirstWords(nbre_literal);
+      j.discardFirstWords(nbre_literal);
+    }
+  }
+
+  /**
+   * writes i AND NOT j to the container
+   * @param i first cursor
+   * @param j second cursor (the one negated)
+   * @param container where the result goes
+   */
+  public static void andNot(IteratingRLW i, IteratingRLW j, BitmapStorage container) {
+    while((i.size() > 0) && (j.size() > 0))
+      andNotStep(i, j, container, unbounded);
+    discharge(i, container, Long.MAX_VALUE);
+    dischargeAsEmpty(j, container);
+  }
+
+  /**
+   * one round of andNot: the clean words of the two cursors, then the
+   * literal words they have in common
+   */
+  static void andNotStep(IteratingRLW i, IteratingRLW j, BitmapStorage container, int maxwords) {
+    while((i.getRunningLength() > 0) || (j.getRunningLength() > 0)) {
+      if(room(container, maxwords) <= 0) return;
+      boolean i_is_prey = i.getRunningLength() < j.getRunningLength();
+      IteratingRLW prey = i_is_prey ? i : j;
+      IteratingRLW predator = i_is_prey ? j : i;
+      long predatorrl = predator.getRunningLength();
+      if(predator.getRunningBit() == i_is_prey) {
+        // either a stream of 1x11 in j or a stream of 0x00 in i
+        container.addStreamOfEmptyWords(false, predatorrl);
+        prey.discardFirstWords(predatorrl);
+      } else if(i_is_prey) {
+        long index = discharge(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(false, predatorrl - index);
+      } else {
+        long index = dischargeNegated(prey, container, predatorrl, maxwords);
+        if((index < predatorrl) && (prey.size() > 0)) {
+          // the container is full: the rest of the run comes next round
+          predator.discardFirstWords(index);
+          return;
+        }
+        container.addStreamOfEmptyWords(true, predatorrl - index);
+      }
+      predator.discardFirstWords(predatorrl);
+    }
+    int nbre_literal = Math.min(Math.min(i.getNumberOfLiteralWords(), j.getNumberOfLiteralWords()),
+        room(container, maxwords));
+    if(nbre_literal > 0) {
+      for(int k = 0; k < nbre_literal; ++k)
+        container.add(i.getLiteralWordAt(k) & ~j.getLiteralWordAt(k));
+      i.discardFirstWords(nbre_literal);
+      j.discardFirstWords(nbre_literal);
+    }
+  }
+
+  /**
+   * copies all the words of the cursor to the container
+   * @param i the cursor
+   * @param container where the words go
+   * @return the number of (uncompressed) words copied
+   */
+  public static long materialize(IteratingRLW i, BitmapStorage container) {
+    return discharge(i, container, Long.MAX_VALUE);
+  }
+
+  /**
+   * counts the bits set in what is left of the cursor
+   * @param i the cursor
+   * @return the number of bits set
+   * @throws ArithmeticException if it is 2^31 or more (use cardinalityAsLong)
+   */
+  public static int cardinality(IteratingRLW i) {
+    return Math.toIntExact(cardinalityAsLong(i));
+  }
+
+  /**
+   * counts the bits set in what is left of the cursor
+   * @param i the cursor
+   * @return the number of bits set, which may be 2^31 or more
+   */
+  public static long cardinalityAsLong(IteratingRLW i) {
+    long counter = 0;
+    while(i.size() > 0) {
+      if(i.getRunningBit())
+        counter += i.getRunningLength() * EWAHCompressedBitmap.wordinbits;
+      int nlit = i.getNumberOfLiteralWords();
+      for(int k = 0; k < nlit; ++k)
+        counter += Long.bitCount(i.getLiteralWordAt(k));
+      i.discardFirstWords(i.size());
+    }
+    return counter;
+  }
+
+  /**
+   * copies up to max words of the cursor to the container
+   * @return how many words were copied
+   */
+  static long discharge(IteratingRLW i, BitmapStorage container, long max) {
+    return discharge(i, container, max, false, unbounded);
+  }
+
+  /**
+   * copies up to max words of the cursor to the container, stopping
+   * early once the container holds maxwords words (see room)
+   * @return how many words were copied
+   */
+  static long discharge(IteratingRLW i, BitmapStorage container, long max, int maxwords) {
+    return discharge(i, container, max, false, maxwords);
+  }
+
+  /**
+   * copies up to max words of the cursor to the container, negated
+   * @return how many words were copied
+   */
+  static long dischargeNegated(IteratingRLW i, BitmapStorage container, long max, int maxwords) {
+    return discharge(i, container, max, true, maxwords);
+  }
+
+  private static long discharge(IteratingRLW i, BitmapStorage container, long max, boolean negated, int maxwords) {
+    long index = 0;
+    while((index < max) && (i.size() > 0)) {
+      int room = room(container, maxwords);
+      if(room <= 0) break;
+      long pl = i.getRunningLength();
+      if(index + pl > max) pl = max - index;
+      container.addStreamOfEmptyWords(i.getRunningBit() != negated, pl);
+      index += pl;
+      int pd = i.getNumberOfLiteralWords();
+      if(pd + index > max) pd = (int) (max - index);
+      if(pd > room) pd = room;
+      if(i instanceof IteratingBufferedRunningLengthWord) {
+        ((IteratingBufferedRunningLengthWord) i).writeLiteralWords(pd, container, negated);
+      } else if(i instanceof BufferedIteratingRLW) {
+        ((BufferedIteratingRLW) i).writeLiteralWords(pd, container, negated);
+      } else {
+        for(int k = 0; k < pd; ++k)
+          container.add(negated ? ~i.getLiteralWordAt(k) : i.getLiteralWordAt(k));
+      }
+      i.discardFirstWords(pl + pd);
+      index += pd;
+    }
+    return index;
+  }
+
+  /**
+   * appends as many clean 0x00 words as there are words left in the cursor
+   */
+  static void dischargeAsEmpty(IteratingRLW i, BitmapStorage container) {
+    while(i.size() > 0) {
+      container.addStreamOfEmptyWords(false, i.size());
+      i.discardFirstWords(i.size());
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.Arrays;
+
+/**
+ * A bitmap that can be updated in any order. EWAHCompressedBitmap.set
+ * only takes increasing positions and bits cannot be cleared, so
+ * changing an indexed row means rebuilding the bitmap. Here set and
+ * clear go to a small sorted buffer of pending updates (position and
+ * new value); reads consult the buffer first, then the compressed
+ * bitmap. Once the buffer is full, it is merged into the compressed
+ * bitmap in one pass: the pending updates are turned into a bitmap of
+ * bits to set and one of bits to clear, and
+ * (bitmap OR set) AND NOT clear is computed through lazy cursors, so
+ * that the cost of a rebuild is paid once per batch of updates rather
+ * than once per update.
+ */
+public final class MutableEWAHCompressedBitmap {
+
+  public MutableEWAHCompressedBitmap() {
+    this(new EWAHCompressedBitmap(), defaultmaxpending);
+  }
+
+  /**
+   * @param bitmap the initial content (it is not copied: it should not
+   *   be modified afterwards)
+   */
+  public MutableEWAHCompressedBitmap(EWAHCompressedBitmap bitmap) {
+    this(bitmap, defaultmaxpending);
+  }
+
+  /**
+   * @param bitmap the initial content (it is not copied: it should not
+   *   be modified afterwards)
+   * @param maxpending how many updates are buffered before they are
+   *   merged into the compressed bitmap
+   */
+  public MutableEWAHCompressedBitmap(EWAHCompressedBitmap bitmap, int maxpending) {
+    if(maxpending < 1)
+      throw new IllegalArgumentException("maxpending should be positive: " + maxpending);
+    this.bitmap = bitmap;
+    this.pending = new long[Math.min(maxpending, 16)];
+    this.maxpending = maxpending;
+    this.sizeinbits = bitmap.sizeInBitsAsLong();
+  }
+
+  /**
+   * set the bit at position i to true
+   * @param i the position of the bit, below 2^62
+   */
+  public void set(long i) {
+    update(i, true);
+  }
+
+  /**
+   * set the bit at position i to false
+   * @param i the position of the bit, below 2^62
+   */
+  public void clear(long i) {
+    update(i, false);
+  }
+
+  /**
+   * @param i the position of a bit
+   * @return whether the bit is set
+   */
+  public boolean get(long i) {
+    int k = find(i);
+    if(k >= 0)
+      return (pending[k] & 1) != 0;
+    return bitmap.get(i);
+  }
+
+  /**
+   * @return the number of bits set
+   * @throws ArithmeticException if 2^31 bits or more are set
+   *   (use cardinalityAsLong)
+   */
+  public int cardinality() {
+    return Math.toIntExact(cardinalityAsLong());
+  }
+
+  /**
+   * @return the number of bits set, which may be 2^31 or more
+   */
+  public long cardinalityAsLong() {
+    long answer = bitmap.cardinalityAsLong();
+    for(int k = 0; k < numberofpending; ++k) {
+      boolean v = (pending[k] & 1) != 0;
+      if(v != bitmap.get(pending[k] >>> 1))
+        answer += v ? 1 : -1;
+    }
+    return answer;
+  }
+
+  /**
+   * @return one more than the largest position ever given to set or
+   *   clear, or the size in bits of the initial bitmap if it is larger
+   */
+  public long sizeInBitsAsLong() {
+    return sizeinbits;
+  }
+
+  /**
+   * @return the number of updates not yet merged into the compressed
+   *   bitmap
+   */
+  public int getNumberOfPendingUpdates() {
+    return numberofpending;
+  }
+
+  /**
+   * merges the pending updates into the compressed bitmap
+   */
+  public void merge() {
+    if(numberofpending == 0) return;
+    EWAHCompressedBitmap toset = new EWAHCompressedBitmap(4);
+    EWAHCompressedBitmap toclear = new EWAHCompressedBitmap(4);
+    for(int k = 0; k < numberofpending; ++k) {
+      if((pending[k] & 1) != 0)
+        toset.set(pending[k] >>> 1);
+      else
+        toclear.set(pending[k] >>> 1);
+    }
+    EWAHCompressedBitmap answer = new EWAHCompressedBitmap(bitmap.sizeInBytes() / 8 + toset.sizeInBytes() / 8 + 1);
+    IteratorUtil.materialize(IteratorUtil.andNot(
+        IteratorUtil.or(bitmap.getIteratingRLW(), toset.getIteratingRLW()),
+        toclear.getIteratingRLW()), answer);
+    answer.setSizeInBits(sizeinbits);
+    answer.trim();
+    bitmap = answer;
+    numberofpending = 0;
+  }
+
+  /**
+   * merges the pending updates, then gives the compressed bitmap
+   * @return the compressed bitmap (it should not be modified: it is
+   *   still used by this object)
+   */
+  public EWAHCompressedBitmap getBitmap() {
+    merge();
+    return bitmap;
+  }
+
+  /**
+   * @return an iterator over the positions of the bits set (the pending
+   *   updates are merged first)
+   */
+  public IntIterator intIterator() {
+    return getBitmap().intIterator();
+  }
+
+  @Override
+  public String toString() {
+    return "MutableEWAHCompressedBitmap, " + numberofpending
+        + " pending updates, " + bitmap.sizeInBytes() + " bytes compressed";
+  }
+
+  private void update(long i, boolean v) {
+    if((i < 0) || (i >= maxposition))
+      throw new IllegalArgumentException("the position should be between 0 and 2^62-1: " + i);
+    long entry = (i << 1) | (v ? 1 : 0);
+    int k = find(i);
+    if(k >= 0) {
+      pending[k] = entry;
+      return;
+    }
+    k = - k - 1;
+    if(numberofpending == pending.length)
+      pending = Arrays.copyOf(pending, (int) Math.min(2l * pending.length, maxpending));
+    System.arraycopy(pending, k, pending, k + 1, numberofpending - k);
+    pending[k] = entry;
+    ++numberofpending;
+    if(i >= sizeinbits)
+      sizeinbits = i + 1;
+    if(numberofpending == maxpending)
+      merge();
+  }
+
+  /**
+   * @return the index of the pending update at position i, or
+   *   -(insertion point) - 1
+   */
+  private int find(long i) {
+    int low = 0;
+    int high = numberofpending - 1;
+    while(low <= high) {
+      int middle = (low + high) >>> 1;
+      long p = pending[middle] >>> 1;
+      if(p < i)
+        low = middle + 1;
+      else if(p > i)
+        high = middle - 1;
+      else
+        return middle;
+    }
+    return - low - 1;
+  }
+
+  static final int defaultmaxpending = 4096;
+  // a pending update stores (position << 1) | value in a long
+  static final long maxposition = 1l << 62;
+  EWAHCompressedBitmap bitmap;
+  long[] pending;
+  int numberofpending = 0;
+  final int maxpending;
+  long sizeinbits;
+}
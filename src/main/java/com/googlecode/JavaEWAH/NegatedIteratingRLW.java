@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * The negation of a cursor (see IteratorUtil.not), computed as it is read.
+ */
+final class NegatedIteratingRLW implements IteratingRLW {
+
+  NegatedIteratingRLW(IteratingRLW parent) {
+    this.parent = parent;
+  }
+
+  public boolean next() {
+    return parent.next();
+  }
+
+  public long getLiteralWordAt(int index) {
+    return ~parent.getLiteralWordAt(index);
+  }
+
+  public int getNumberOfLiteralWords() {
+    return parent.getNumberOfLiteralWords();
+  }
+
+  public boolean getRunningBit() {
+    return !parent.getRunningBit();
+  }
+
+  public long getRunningLength() {
+    return parent.getRunningLength();
+  }
+
+  public long size() {
+    return parent.size();
+  }
+
+  public void discardFirstWords(long x) {
+    parent.discardFirstWords(x);
+  }
+
+  private final IteratingRLW parent;
+}
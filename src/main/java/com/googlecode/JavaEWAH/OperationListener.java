@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * Told about each operation on an EWAHCompressedBitmap once it is done
+ * (see Instrumentation.setListener), e.g., to feed metrics or to record
+ * JDK Flight Recorder events (JfrOperationListener, Java 11 and up).
+ * It is called by the thread doing the operation, so it should be quick.
+ */
+public interface OperationListener {
+
+  /**
+   * @param operation what was done (Instrumentation.AND, OR...)
+   * @param nanos how long it took, in nanoseconds
+   * @param inputwords the words in use by the operands
+   * @param outputwords the words in use by the result (for NOT and
+   *   DESERIALIZE, the bitmap itself; for ITERATE, the number of
+   *   positions)
+   * @param allocatedbytes the bytes allocated for the words of the result
+   *   (0 when a buffer was reused)
+   */
+  void operationDone(int operation, long nanos, long inputwords, long outputwords, long allocatedbytes);
+}
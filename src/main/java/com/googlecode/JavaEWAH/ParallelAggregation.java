@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates large sets of bitmaps on several cores. The input is split
+ * in halves recursively; the halves are merged concurrently on a
+ * ForkJoinPool and the two partial results are then combined.
+ * Sets of at most cutoff bitmaps are aggregated on the current thread
+ * with the static methods of EWAHCompressedBitmap, so small inputs never
+ * pay for the task overhead.
+ */
+public final class ParallelAggregation {
+
+  private ParallelAggregation() {}
+
+  /**
+   * below this number of bitmaps, we do not fork
+   */
+  public static final int defaultcutoff = 64;
+
+  /**
+   * computes the logical or of the bitmaps on the common pool
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the union of all the bitmaps
+   */
+  public static EWAHCompressedBitmap or(EWAHCompressedBitmap... bitmaps) {
+    return or(ForkJoinPool.commonPool(), defaultcutoff, bitmaps);
+  }
+
+  /**
+   * computes the logical or of the bitmaps
+   * @param pool where the subtasks run
+   * @param cutoff largest number of bitmaps aggregated without forking
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the union of all the bitmaps
+   */
+  public static EWAHCompressedBitmap or(ForkJoinPool pool, int cutoff, EWAHCompressedBitmap... bitmaps) {
+    return aggregate(pool, cutoff, bitmaps, OR);
+  }
+
+  /**
+   * computes the logical and of the bitmaps on the common pool
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the intersection of all the bitmaps
+   */
+  public static EWAHCompressedBitmap and(EWAHCompressedBitmap... bitmaps) {
+    return and(ForkJoinPool.commonPool(), defaultcutoff, bitmaps);
+  }
+
+  /**
+   * computes the logical and of the bitmaps
+   * @param pool where the subtasks run
+   * @param cutoff largest number of bitmaps aggregated without forking
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the intersection of all the bitmaps
+   */
+  public static EWAHCompressedBitmap and(ForkJoinPool pool, int cutoff, EWAHCompressedBitmap... bitmaps) {
+    return aggregate(pool, cutoff, bitmaps, AND);
+  }
+
+  /**
+   * computes the exclusive or of the bitmaps on the common pool
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the bits set in an odd number of the bitmaps
+   */
+  public static EWAHCompressedBitmap xor(EWAHCompressedBitmap... bitmaps) {
+    return xor(ForkJoinPool.commonPool(), defaultcutoff, bitmaps);
+  }
+
+  /**
+   * computes the exclusive or of the bitmaps
+   * @param pool where the subtasks run
+   * @param cutoff largest number of bitmaps aggregated without forking
+   * @param bitmaps the bitmaps to aggregate (left untouched)
+   * @return the bits set in an odd number of the bitmaps
+   */
+  public static EWAHCompressedBitmap xor(ForkJoinPool pool, int cutoff, EWAHCompressedBitmap... bitmaps) {
+    return aggregate(pool, cutoff, bitmaps, XOR);
+  }
+
+  private static EWAHCompressedBitmap aggregate(ForkJoinPool pool, int cutoff, EWAHCompressedBitmap[] bitmaps, int operation) {
+    if(cutoff < 2)
+      throw new IllegalArgumentException("cutoff must be at least 2");
+    if(bitmaps.length <= cutoff)
+      return sequential(bitmaps, operation);
+    return pool.invoke(new AggregationTask(bitmaps, 0, bitmaps.length, cutoff, operation));
+  }
+
+  static EWAHCompressedBitmap sequential(EWAHCompressedBitmap[] bitmaps, int operation) {
+    switch(operation) {
+      case OR: return EWAHCompressedBitmap.or(bitmaps);
+      case AND: return EWAHCompressedBitmap.and(bitmaps);
+      default: return EWAHCompressedBitmap.xor(bitmaps);
+    }
+  }
+
+  static final int OR = 0;
+  static final int AND = 1;
+  static final int XOR = 2;
+
+  static final class AggregationTask extends RecursiveTask<EWAHCompressedBitmap> {
+    private static final long serialVersionUID = 1L;
+
+    final EWAHCompressedBitmap[] bitmaps;
+    final int from;
+    final int to;
+    final int cutoff;
+    final int operation;
+
+    AggregationTask(EWAHCompressedBitmap[] bitmaps, int from, int to, int cutoff, int operation) {
+      this.bitmaps = bitmaps;
+      this.from = from;
+      this.to = to;
+      this.cutoff = cutoff;
+      this.operation = operation;
+    }
+
+    protected EWAHCompressedBitmap compute() {
+      if(to - from <= cutoff)
+        return sequential(Arrays.copyOfRange(bitmaps, from, to), operation);
+      int middle = (from + to) >>> 1;
+      AggregationTask left = new AggregationTask(bitmaps, from, middle, cutoff, operation);
+      AggregationTask right = new AggregationTask(bitmaps, middle, to, cutoff, operation);
+      left.fork();
+      EWAHCompressedBitmap r = right.compute();
+      EWAHCompressedBitmap l = left.join();
+      switch(operation) {
+        case OR: return l.or(r);
+        case AND: return l.and(r);
+        default: return l.xor(r);
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.Arrays;
+
+/**
+ * A boolean expression over named bitmaps, to be evaluated by a
+ * QueryEngine. For example,
+ *
+ *   Query.and(Query.bitmap("country=CA"),
+ *             Query.or(Query.bitmap("browser=firefox"), Query.bitmap("browser=chrome")),
+ *             Query.not(Query.bitmap("bot")))
+ *
+ * Queries are immutable; the operands can be given in any order and
+ * nested freely, the engine decides how to evaluate them.
+ */
+public final class Query {
+
+  /**
+   * @param name the name of a bitmap known to the engine
+   * @return the query selecting the bits of that bitmap
+   */
+  public static Query bitmap(String name) {
+    if(name == null) throw new NullPointerException();
+    return new Query(BITMAP, name, null);
+  }
+
+  /**
+   * @param operands at least one query
+   * @return the intersection of the operands
+   */
+  public static Query and(Query... operands) {
+    return new Query(AND, null, check(operands));
+  }
+
+  /**
+   * @param operands at least one query
+   * @return the union of the operands
+   */
+  public static Query or(Query... operands) {
+    return new Query(OR, null, check(operands));
+  }
+
+  /**
+   * @param operand a query
+   * @return the bits (up to the size of the bitmaps) not selected by the operand
+   */
+  public static Query not(Query operand) {
+    return new Query(NOT, null, check(new Query[] {operand}));
+  }
+
+  /**
+   * @param a a query
+   * @param b a query
+   * @return the bits selected by a but not by b
+   */
+  public static Query andNot(Query a, Query b) {
+    return and(a, not(b));
+  }
+
+  private static Query[] check(Query[] operands) {
+    if(operands.length == 0)
+      throw new IllegalArgumentException("a query needs at least one operand");
+    Query[] copy = operands.clone();
+    for(Query q : copy)
+      if(q == null) throw new NullPointerException();
+    return copy;
+  }
+
+  Query(int type, String name, Query[] operands) {
+    this.type = type;
+    this.name = name;
+    this.operands = operands;
+  }
+
+  public String toString() {
+    switch(type) {
+      case BITMAP: return name;
+      case NOT: return "NOT " + operands[0];
+      default:
+        StringBuilder sb = new StringBuilder("(");
+        for(int k = 0; k < operands.length; ++k) {
+          if(k > 0) sb.append(type == AND ? " AND " : " OR ");
+          sb.append(operands[k]);
+        }
+        return sb.append(')').toString();
+    }
+  }
+
+  public boolean equals(Object o) {
+    if(!(o instanceof Query)) return false;
+    Query q = (Query) o;
+    return (type == q.type) && (type == BITMAP ? name.equals(q.name) : Arrays.equals(operands, q.operands));
+  }
+
+  public int hashCode() {
+    return type == BITMAP ? name.hashCode() : 31 * type + Arrays.hashCode(operands);
+  }
+
+  static final int BITMAP = 0;
+  static final int AND = 1;
+  static final int OR = 2;
+  static final int NOT = 3;
+
+  final int type;
+  // the name of the bitmap, for BITMAP
+  final String name;
+  // the operands, for AND, OR and NOT
+  final Query[] operands;
+}
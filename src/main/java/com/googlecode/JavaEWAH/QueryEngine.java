@@ -0,0 +1,283 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates Query trees over a set of named bitmaps. Before evaluating a
+ * query, the engine plans it (see plan):
+ *
+ * - nested ANDs and nested ORs are flattened, so that an OR of many
+ *   bitmaps becomes one multi-way merge (EWAHCompressedBitmap.or, which
+ *   merges the smallest bitmaps first);
+ * - the operands of an AND are sorted so that the cheapest ones (by
+ *   sizeInBytes, then by cardinality) come first, and the negated
+ *   operands are applied last, with andNot;
+ * - NOT NOT x is x, and an AND of negations is the negation of an OR.
+ *
+ * When the intermediate result of an AND becomes empty, the remaining
+ * operands are not evaluated at all.
+ *
+ * The bitmaps are only read: the results are new bitmaps.
+ */
+public final class QueryEngine {
+
+  /**
+   * @param bitmaps the bitmaps, by name (looked up at each evaluation);
+   *   NOT negates up to the largest size in bits among them
+   */
+  public QueryEngine(Map<String, EWAHCompressedBitmap> bitmaps) {
+    this(bitmaps, -1);
+  }
+
+  /**
+   * @param bitmaps the bitmaps, by name (looked up at each evaluation)
+   * @param sizeinbits the number of rows: NOT negates up to there
+   */
+  public QueryEngine(Map<String, EWAHCompressedBitmap> bitmaps, long sizeinbits) {
+    this.bitmaps = bitmaps;
+    this.sizeinbits = sizeinbits;
+  }
+
+  /**
+   * rewrites a query the way it will be evaluated
+   * @param q the query
+   * @return an equivalent query, flattened, with the operands of each AND
+   *   in the order they will be applied
+   * @throws IllegalArgumentException if a bitmap is unknown
+   */
+  public Query plan(Query q) {
+    switch(q.type) {
+      case Query.BITMAP:
+        lookup(q.name);
+        return q;
+      case Query.NOT: {
+        Query operand = plan(q.operands[0]);
+        return operand.type == Query.NOT ? operand.operands[0] : new Query(Query.NOT, null, new Query[] {operand});
+      }
+      default: {
+        List<Query> flat = new ArrayList<Query>();
+        for(Query operand : q.operands) {
+          Query p = plan(operand);
+          if(p.type == q.type)
+            flat.addAll(Arrays.asList(p.operands));
+          else
+            flat.add(p);
+        }
+        if(flat.size() == 1)
+          return flat.get(0);
+        if(q.type == Query.OR)
+          return new Query(Query.OR, null, flat.toArray(new Query[flat.size()]));
+        List<Query> positives = new ArrayList<Query>();
+        List<Query> negatives = new ArrayList<Query>();
+        for(Query p : flat) {
+          if(p.type == Query.NOT)
+            negatives.add(p);
+          else
+            positives.add(p);
+        }
+        if(positives.isEmpty()) {
+          // NOT a AND NOT b = NOT (a OR b)
+          Query[] ors = new Query[negatives.size()];
+          for(int k = 0; k < ors.length; ++k)
+            ors[k] = negatives.get(k).operands[0];
+          return plan(Query.not(Query.or(ors)));
+        }
+        Comparator<Query> bycost = new Comparator<Query>() {
+          public int compare(Query a, Query b) {
+            long ca = cost(a), cb = cost(b);
+            if(ca != cb) return ca < cb ? -1 : 1;
+            long na = cardinalityBound(a), nb = cardinalityBound(b);
+            return na < nb ? -1 : (na == nb ? 0 : 1);
+          }
+        };
+        positives.sort(bycost);
+        negatives.sort(bycost);
+        positives.addAll(negatives);
+        return new Query(Query.AND, null, positives.toArray(new Query[positives.size()]));
+      }
+    }
+  }
+
+  /**
+   * @param q the query
+   * @return the bits selected by the query, as a new bitmap
+   * @throws IllegalArgumentException if a bitmap is unknown
+   */
+  public EWAHCompressedBitmap evaluate(Query q) {
+    Query p = plan(q);
+    EWAHCompressedBitmap answer = execute(p);
+    if(p.type == Query.BITMAP) {
+      // do not hand out the bitmap itself
+      try {
+        answer = (EWAHCompressedBitmap) answer.clone();
+      } catch (CloneNotSupportedException cnse) {
+        throw new RuntimeException(cnse);
+      }
+    }
+    answer.setSizeInBits(Math.max(answer.sizeInBitsAsLong(), universe()));
+    return answer;
+  }
+
+  /**
+   * counts the bits selected by a query. When the query is an AND, OR or
+   * AND NOT of two bitmaps, the result is not materialized.
+   *
+   * @param q the query
+   * @return the number of bits selected
+   * @throws IllegalArgumentException if a bitmap is unknown
+   * @throws ArithmeticException if 2^31 bits or more are selected
+   *   (use cardinalityAsLong)
+   */
+  public int cardinality(Query q) {
+    return Math.toIntExact(cardinalityAsLong(q));
+  }
+
+  /**
+   * same as cardinality(Query), but the count may be 2^31 or more
+   *
+   * @param q the query
+   * @return the number of bits selected
+   * @throws IllegalArgumentException if a bitmap is unknown
+   */
+  public long cardinalityAsLong(Query q) {
+    Query p = plan(q);
+    if(p.type == Query.BITMAP)
+      return lookup(p.name).cardinalityAsLong();
+    if((p.type != Query.NOT) && (p.operands.length == 2) && (p.operands[0].type == Query.BITMAP)) {
+      EWAHCompressedBitmap a = lookup(p.operands[0].name);
+      Query second = p.operands[1];
+      if(second.type == Query.BITMAP)
+        return p.type == Query.AND ? a.andCardinalityAsLong(lookup(second.name)) : a.orCardinalityAsLong(lookup(second.name));
+      if((p.type == Query.AND) && (second.type == Query.NOT) && (second.operands[0].type == Query.BITMAP))
+        return a.andNotCardinalityAsLong(lookup(second.operands[0].name));
+    }
+    return execute(p).cardinalityAsLong();
+  }
+
+  /**
+   * evaluates a planned query; the result may be one of our bitmaps
+   */
+  private EWAHCompressedBitmap execute(Query p) {
+    switch(p.type) {
+      case Query.BITMAP:
+        return lookup(p.name);
+      case Query.NOT:
+        return ones().andNot(execute(p.operands[0]));
+      case Query.OR: {
+        EWAHCompressedBitmap[] operands = new EWAHCompressedBitmap[p.operands.length];
+        for(int k = 0; k < operands.length; ++k)
+          operands[k] = execute(p.operands[k]);
+        return EWAHCompressedBitmap.or(operands);
+      }
+      default: {
+        EWAHCompressedBitmap answer = execute(p.operands[0]);
+        for(int k = 1; k < p.operands.length; ++k) {
+          if(answer.isEmpty())
+            return new EWAHCompressedBitmap();
+          Query operand = p.operands[k];
+          if(operand.type == Query.NOT)
+            answer = answer.andNot(execute(operand.operands[0]));
+          else
+            answer = answer.and(execute(operand));
+        }
+        return answer;
+      }
+    }
+  }
+
+  /**
+   * an estimate of the cost of evaluating a query, in bytes read
+   */
+  private long cost(Query q) {
+    switch(q.type) {
+      case Query.BITMAP:
+        return lookup(q.name).sizeInBytes();
+      case Query.AND: {
+        long answer = Long.MAX_VALUE;
+        for(Query operand : q.operands)
+          answer = Math.min(answer, cost(operand));
+        return answer;
+      }
+      default: {
+        long answer = 0;
+        for(Query operand : q.operands)
+          answer += cost(operand);
+        return answer;
+      }
+    }
+  }
+
+  /**
+   * an upper bound on the number of bits selected by a query
+   */
+  private long cardinalityBound(Query q) {
+    switch(q.type) {
+      case Query.BITMAP:
+        return lookup(q.name).cardinalityAsLong();
+      case Query.AND: {
+        long answer = Long.MAX_VALUE;
+        for(Query operand : q.operands)
+          answer = Math.min(answer, cardinalityBound(operand));
+        return answer;
+      }
+      case Query.OR: {
+        long answer = 0;
+        for(Query operand : q.operands)
+          answer += cardinalityBound(operand);
+        return answer;
+      }
+      default:
+        return universe();
+    }
+  }
+
+  private EWAHCompressedBitmap lookup(String name) {
+    EWAHCompressedBitmap answer = bitmaps.get(name);
+    if(answer == null)
+      throw new IllegalArgumentException("no bitmap named " + name);
+    return answer;
+  }
+
+  private long universe() {
+    if(sizeinbits >= 0) return sizeinbits;
+    long answer = 0;
+    for(EWAHCompressedBitmap b : bitmaps.values())
+      answer = Math.max(answer, b.sizeInBitsAsLong());
+    return answer;
+  }
+
+  /**
+   * @return a bitmap with all the bits set, up to universe()
+   */
+  private EWAHCompressedBitmap ones() {
+    long size = universe();
+    EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+    answer.addStreamOfEmptyWords(true, size / EWAHCompressedBitmap.wordinbits);
+    int rest = (int) (size % EWAHCompressedBitmap.wordinbits);
+    if(rest > 0)
+      answer.add((1l << rest) - 1, rest);
+    return answer;
+  }
+
+  private final Map<String, EWAHCompressedBitmap> bitmaps;
+  private final long sizeinbits;
+}
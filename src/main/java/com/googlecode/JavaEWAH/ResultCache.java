@@ -0,0 +1,266 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of and, or, xor and andNot so that queries that come
+ * back (e.g., the same filters on a dashboard) are not computed again.
+ *
+ * A result is found by the operation and by the identity of its operands:
+ * two equal bitmaps that are different objects do not share results. Each
+ * bitmap counts its changes (set, add, append, not, clear, deserialize...),
+ * so when an operand has changed since its result was kept, the result is
+ * dropped and computed again. The results are trimmed (see trim) before
+ * they are kept, and the cache is bounded by the memory of their buffers;
+ * the results used least recently go first.
+ *
+ * The bitmaps returned are shared with later callers and must not be
+ * changed (a result that was changed is dropped on its next use). The
+ * cache only keeps weak references to the operands, so it does not keep
+ * them alive: the bound is on the memory of the results alone. The
+ * results whose operand was garbage collected or has changed, or which
+ * were changed themselves, are dropped whenever a result is added. All
+ * methods are thread-safe; the operations are computed outside of the
+ * lock.
+ */
+public final class ResultCache {
+
+  /**
+   * @param maxsizeinbytes the total size of the buffers of the results
+   *   kept; a result larger than this is not kept
+   */
+  public ResultCache(long maxsizeinbytes) {
+    if(maxsizeinbytes < 0)
+      throw new IllegalArgumentException("negative size: " + maxsizeinbytes);
+    this.maxsizeinbytes = maxsizeinbytes;
+  }
+
+  /**
+   * @param a a bitmap
+   * @param b a bitmap
+   * @return a.and(b), from the cache if possible
+   */
+  public EWAHCompressedBitmap and(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    return get(IteratorUtil.AND, a, b);
+  }
+
+  /**
+   * @param a a bitmap
+   * @param b a bitmap
+   * @return a.or(b), from the cache if possible
+   */
+  public EWAHCompressedBitmap or(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    return get(IteratorUtil.OR, a, b);
+  }
+
+  /**
+   * @param a a bitmap
+   * @param b a bitmap
+   * @return a.xor(b), from the cache if possible
+   */
+  public EWAHCompressedBitmap xor(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    return get(IteratorUtil.XOR, a, b);
+  }
+
+  /**
+   * @param a a bitmap
+   * @param b a bitmap
+   * @return a.andNot(b), from the cache if possible
+   */
+  public EWAHCompressedBitmap andNot(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    return get(IteratorUtil.ANDNOT, a, b);
+  }
+
+  /**
+   * drops all the results
+   */
+  public synchronized void clear() {
+    entries.clear();
+    sizeinbytes = 0;
+  }
+
+  /**
+   * @return the number of results kept
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the total size of the buffers of the results kept, in bytes
+   */
+  public synchronized long sizeInBytes() {
+    return sizeinbytes;
+  }
+
+  /**
+   * @return the bound given to the constructor
+   */
+  public long getMaxSizeInBytes() {
+    return maxsizeinbytes;
+  }
+
+  /**
+   * @return the number of queries answered from the cache
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the number of queries that were computed
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private EWAHCompressedBitmap get(int operation, EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    Key key = new Key(operation, a, b);
+    synchronized(this) {
+      Entry e = entries.get(key);
+      if(e != null) {
+        if(e.isCurrent(a, b)) {
+          ++hits;
+          return e.result;
+        }
+        remove(key);
+      }
+      ++misses;
+    }
+    int amodcount = a.modcount, bmodcount = b.modcount;
+    Entry e = new Entry(amodcount, bmodcount, compute(operation, a, b));
+    synchronized(this) {
+      // another thread may have kept the same result meanwhile
+      remove(key);
+      if(e.sizeinbytes <= maxsizeinbytes) {
+        entries.put(key, e);
+        sizeinbytes += e.sizeinbytes;
+        evict();
+      }
+    }
+    return e.result;
+  }
+
+  private static EWAHCompressedBitmap compute(int operation, EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    switch(operation) {
+      case IteratorUtil.AND: return a.and(b);
+      case IteratorUtil.OR: return a.or(b);
+      case IteratorUtil.XOR: return a.xor(b);
+      default: return a.andNot(b);
+    }
+  }
+
+  private void remove(Key key) {
+    Entry old = entries.remove(key);
+    if(old != null)
+      sizeinbytes -= old.sizeinbytes;
+  }
+
+  /**
+   * drops the results that can no longer be used, then the ones used
+   * least recently (the entries are in access order) until we are within
+   * the bound
+   */
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+    while(i.hasNext()) {
+      Map.Entry<Key, Entry> m = i.next();
+      EWAHCompressedBitmap a = m.getKey().a.get();
+      EWAHCompressedBitmap b = m.getKey().b.get();
+      if((a == null) || (b == null) || !m.getValue().isCurrent(a, b)) {
+        sizeinbytes -= m.getValue().sizeinbytes;
+        i.remove();
+      }
+    }
+    Iterator<Entry> j = entries.values().iterator();
+    while(sizeinbytes > maxsizeinbytes && j.hasNext()) {
+      sizeinbytes -= j.next().sizeinbytes;
+      j.remove();
+    }
+  }
+
+  /**
+   * an operation and its operands, compared by identity; the operands
+   * are weak references, so once one is collected the key only equals
+   * itself
+   */
+  static final class Key {
+    Key(int operation, EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+      this.operation = operation;
+      this.a = new WeakReference<EWAHCompressedBitmap>(a);
+      this.b = new WeakReference<EWAHCompressedBitmap>(b);
+      this.hashcode = 31 * (31 * operation + System.identityHashCode(a)) + System.identityHashCode(b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(o == this) return true;
+      if(!(o instanceof Key)) return false;
+      Key k = (Key) o;
+      if((k.operation != operation) || (k.hashcode != hashcode)) return false;
+      EWAHCompressedBitmap ka = k.a.get(), kb = k.b.get();
+      return (ka != null) && (kb != null) && (ka == a.get()) && (kb == b.get());
+    }
+
+    @Override
+    public int hashCode() {
+      return hashcode;
+    }
+
+    final int operation;
+    final WeakReference<EWAHCompressedBitmap> a;
+    final WeakReference<EWAHCompressedBitmap> b;
+    // kept: the identity hash codes cannot be read once the operands are gone
+    final int hashcode;
+  }
+
+  /**
+   * a result, with the change counts of its operands (and its own)
+   * when it was computed
+   */
+  static final class Entry {
+    Entry(int amodcount, int bmodcount, EWAHCompressedBitmap result) {
+      this.amodcount = amodcount;
+      this.bmodcount = bmodcount;
+      this.result = result;
+      this.resultmodcount = result.modcount;
+      result.trim();
+      this.sizeinbytes = result.buffer.length * 8l;
+    }
+
+    boolean isCurrent(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+      return (a.modcount == amodcount) && (b.modcount == bmodcount)
+        && (result.modcount == resultmodcount);
+    }
+
+    final int amodcount;
+    final int bmodcount;
+    final EWAHCompressedBitmap result;
+    final int resultmodcount;
+    final long sizeinbytes;
+  }
+
+  private final long maxsizeinbytes;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private long sizeinbytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+/**
+ * A marker word of EWAHCompressedBitmap32, read in place: bit 0 is the
+ * running bit, the next 16 bits the running length, and the top 15 bits
+ * the number of literal words that follow.
+ */
+public class RunningLengthWord32 {
+
+  RunningLengthWord32(int[] a, int p) {
+    array = a;
+    position = p;
+  }
+
+  public int getNumberOfLiteralWords() {
+    return  array[position] >>> (1+runninglengthbits);
+  }
+
+  public void setNumberOfLiteralWords(int number) {
+    array[position] |= notrunninglengthplusrunningbit;
+    array[position] &= (number << (runninglengthbits +1) ) |runninglengthplusrunningbit;
+  }
+
+  public void setRunningBit(boolean b) {
+    if(b) array[position] |= 1;
+    else array[position] &= ~1;
+  }
+
+  public boolean getRunningBit() {
+    return (array[position] & 1) != 0;
+  }
+
+  public int getRunningLength() {
+    return (array[position] >>> 1) & largestrunninglengthcount ;
+  }
+
+  public void setRunningLength(int number) {
+    array[position] |= shiftedlargestrunninglengthcount;
+    array[position] &= (number << 1) | notshiftedlargestrunninglengthcount;
+  }
+
+  public int size() {
+    return getRunningLength() + getNumberOfLiteralWords();
+  }
+
+  public String toString() {
+    return "running bit = "+getRunningBit() +" running length = "+getRunningLength() + " number of lit. words "+ getNumberOfLiteralWords();
+  }
+
+  public void discardFirstWords(int x) {
+    int rl = getRunningLength() ;
+    if(rl >= x) {
+      setRunningLength(rl - x);
+      assert getRunningLength() == rl-x;
+      return;
+    }
+    x -= rl;
+    setRunningLength(0);
+    assert getRunningLength() == 0;
+    int old = getNumberOfLiteralWords() ;
+    assert old >= x;
+    setNumberOfLiteralWords(old - x);
+    assert old-x == getNumberOfLiteralWords();
+  }
+
+  public int[] array;
+  public int position;
+  public static final int runninglengthbits = 16;
+  public static final int literalbits = 32 - 1 - runninglengthbits;
+  public static final int largestliteralcount = (1<<literalbits) - 1;
+  public static final int largestrunninglengthcount = (1<<runninglengthbits)-1;
+  public static final int shiftedlargestrunninglengthcount = largestrunninglengthcount<<1;
+  public static final int notshiftedlargestrunninglengthcount = ~shiftedlargestrunninglengthcount;
+  public static final int runninglengthplusrunningbit = (1<<(runninglengthbits+1)) - 1;
+  public static final int notrunninglengthplusrunningbit =~runninglengthplusrunningbit;
+//  public static int notlargestrunninglengthcount =~largestrunninglengthcount;
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * The WordKernel for any JVM: one word at a time, in loops simple
+ * enough for the JIT compiler to unroll.
+ */
+final class ScalarWordKernel extends WordKernel {
+
+  void combine(int operation, long[] a, int astart, long[] b, int bstart, long[] out, int number) {
+    switch(operation) {
+      case IteratorUtil.AND:
+        for(int k = 0; k < number; ++k)
+          out[k] = a[astart + k] & b[bstart + k];
+        break;
+      case IteratorUtil.OR:
+        for(int k = 0; k < number; ++k)
+          out[k] = a[astart + k] | b[bstart + k];
+        break;
+      case IteratorUtil.XOR:
+        for(int k = 0; k < number; ++k)
+          out[k] = a[astart + k] ^ b[bstart + k];
+        break;
+      default:
+        for(int k = 0; k < number; ++k)
+          out[k] = a[astart + k] & ~b[bstart + k];
+    }
+  }
+
+  void not(long[] a, int start, int number) {
+    for(int k = start; k < start + number; ++k)
+      a[k] = ~a[k];
+  }
+
+  String name() {
+    return "scalar";
+  }
+}
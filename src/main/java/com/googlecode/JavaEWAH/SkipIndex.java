@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+
+import java.util.Arrays;
+
+/**
+ * A sparse index over the buffer of an EWAHCompressedBitmap, used for
+ * random access (get, rank and select). Every stride words of the buffer,
+ * we record where we are: the marker word, how many of its literal words
+ * come before us, how many (uncompressed) words and how many set bits
+ * precede us. A lookup is then a binary search followed by a scan of at
+ * most about stride words.
+ *
+ * The index is immutable: the bitmap drops it whenever it is modified.
+ */
+final class SkipIndex {
+
+  static final int stride = 64;
+
+  SkipIndex(long[] buffer, int actualsizeinwords) {
+    int capacity = actualsizeinwords / stride + 1;
+    int[] markers = new int[capacity];
+    int[] literals = new int[capacity];
+    long[] words = new long[capacity];
+    long[] cards = new long[capacity];
+    int size = 0;
+    RunningLengthWord rlw = new RunningLengthWord(buffer, 0);
+    long position = 0;
+    long card = 0;
+    int since = stride;
+    for(int p = 0; p < actualsizeinwords; ) {
+      rlw.position = p;
+      long rl = rlw.getRunningLength();
+      int nlit = (int) rlw.getNumberOfLiteralWords();
+      for(int k = 0; k <= nlit; ++k) {
+        if(since >= stride) {
+          if(size == markers.length) {
+            markers = Arrays.copyOf(markers, 2 * size);
+            literals = Arrays.copyOf(literals, 2 * size);
+            words = Arrays.copyOf(words, 2 * size);
+            cards = Arrays.copyOf(cards, 2 * size);
+          }
+          markers[size] = p;
+          literals[size] = k;
+          words[size] = position;
+          cards[size] = card;
+          ++size;
+          since = 0;
+        }
+        ++since;
+        if(k == 0) {
+          // the marker word itself: skip its run
+          position += rl;
+          if(rlw.getRunningBit()) card += rl * EWAHCompressedBitmap.wordinbits;
+        } else {
+          position += 1;
+          card += Long.bitCount(buffer[p + k]);
+        }
+      }
+      p += 1 + nlit;
+    }
+    this.size = size;
+    this.markers = markers;
+    this.literals = literals;
+    this.words = words;
+    this.cards = cards;
+  }
+
+  /**
+   * @param word an (uncompressed) word position
+   * @return the last entry starting at or before this word
+   */
+  int findWord(long word) {
+    return lastAtMost(words, word);
+  }
+
+  /**
+   * @param card a number of set bits
+   * @return the last entry with at most card set bits before it
+   */
+  int findCardinality(long card) {
+    return lastAtMost(cards, card);
+  }
+
+  private int lastAtMost(long[] values, long key) {
+    int low = 0;
+    int high = size - 1;
+    while(low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if(values[middle] <= key)
+        low = middle;
+      else
+        high = middle - 1;
+    }
+    return low;
+  }
+
+  final int size;
+  // offset of the marker word in the buffer
+  final int[] markers;
+  // 0 if the entry is at the marker word, otherwise k if it is at its k-th literal word
+  final int[] literals;
+  // number of uncompressed words before the entry
+  final long[] words;
+  // number of set bits before the entry
+  final long[] cards;
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+/**
+ * Loops over stretches of literal words: the logical operations combine
+ * the literal words the two bitmaps have in common a block at a time
+ * (see EWAHCompressedBitmap.addCombined), rather than word by word.
+ *
+ * The kernel is chosen when the class is loaded: VectorWordKernel (SIMD
+ * through jdk.incubator.vector, compiled from src/main/java16) when the
+ * JVM has the module (java --add-modules jdk.incubator.vector), and
+ * ScalarWordKernel otherwise. Setting the system property
+ * com.googlecode.JavaEWAH.vector to false forces the scalar kernel.
+ */
+abstract class WordKernel {
+
+  /**
+   * out[k] = a[astart + k] OP b[bstart + k], for k from 0 to number - 1
+   * @param operation IteratorUtil.AND, OR, XOR or ANDNOT (a AND NOT b)
+   */
+  abstract void combine(int operation, long[] a, int astart, long[] b, int bstart, long[] out, int number);
+
+  /**
+   * negates number words in place
+   */
+  abstract void not(long[] a, int start, int number);
+
+  /**
+   * @return the number of bits set in number words
+   */
+  long bitCount(long[] a, int start, int number) {
+    long answer = 0;
+    for(int k = start; k < start + number; ++k)
+      answer += Long.bitCount(a[k]);
+    return answer;
+  }
+
+  /**
+   * @return a name for the kernel, e.g. for benchmarks
+   */
+  abstract String name();
+
+  static final WordKernel instance = select();
+
+  private static WordKernel select() {
+    if(!Boolean.parseBoolean(System.getProperty("com.googlecode.JavaEWAH.vector", "true")))
+      return new ScalarWordKernel();
+    try {
+      return (WordKernel) Class.forName("com.googlecode.JavaEWAH.VectorWordKernel").getDeclaredConstructor().newInstance();
+    } catch (Exception | LinkageError e) {
+      // before Java 16, or without the jdk.incubator.vector module
+      return new ScalarWordKernel();
+    }
+  }
+}
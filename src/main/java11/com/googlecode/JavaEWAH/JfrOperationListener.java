@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Records each operation on an EWAHCompressedBitmap as a JDK Flight
+ * Recorder event (com.googlecode.JavaEWAH.Operation), so that the time
+ * spent in bitmap operations shows up in production recordings. Once
+ * installed, the event is only created when the recording enables it.
+ *
+ * The listener is only told about an operation once it is done, so the
+ * event is an instant event, committed when the operation ends: its
+ * start time is the end of the operation and its JFR duration is 0.
+ * The time the operation took is the elapsed field; filter on it rather
+ * than with a threshold setting, which would drop every event. Stack
+ * traces are off: the event may be committed for every operation.
+ *
+ * This class needs Java 11 (it is compiled from src/main/java11).
+ */
+public final class JfrOperationListener implements OperationListener {
+
+  /**
+   * makes JfrOperationListener the listener (see Instrumentation)
+   */
+  public static void install() {
+    Instrumentation.setListener(new JfrOperationListener());
+  }
+
+  public void operationDone(int operation, long nanos, long inputwords, long outputwords, long allocatedbytes) {
+    if(!enabled.isEnabled()) return;
+    OperationEvent e = new OperationEvent();
+    e.operation = Instrumentation.name(operation);
+    e.elapsed = nanos;
+    e.inputWords = inputwords;
+    e.outputWords = outputwords;
+    e.allocated = allocatedbytes;
+    e.commit();
+  }
+
+  private final OperationEvent enabled = new OperationEvent();
+
+  @Name("com.googlecode.JavaEWAH.Operation")
+  @Label("Bitmap Operation")
+  @Category("JavaEWAH")
+  @Description("A logical operation, a negation, an iteration or a deserialization of an EWAHCompressedBitmap, recorded when it ends (the time it took is Elapsed)")
+  @StackTrace(false)
+  static final class OperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Elapsed")
+    @Description("How long the operation took, up to the event time")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Input Words")
+    long inputWords;
+
+    @Label("Output Words")
+    long outputWords;
+
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocated;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 Daniel Lemire
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.JavaEWAH;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The WordKernel over the Vector API: as many words at a time as the
+ * widest vector registers hold (e.g., 4 with AVX2, 8 with AVX-512), then
+ * the remaining words one at a time. Loaded by WordKernel only if the
+ * JVM has the jdk.incubator.vector module.
+ *
+ * This class needs Java 16 (it is compiled from src/main/java16).
+ */
+final class VectorWordKernel extends WordKernel {
+
+  private static final VectorSpecies<Long> species = LongVector.SPECIES_PREFERRED;
+
+  void combine(int operation, long[] a, int astart, long[] b, int bstart, long[] out, int number) {
+    VectorOperators.Binary op;
+    switch(operation) {
+      case IteratorUtil.AND: op = VectorOperators.AND; break;
+      case IteratorUtil.OR: op = VectorOperators.OR; break;
+      case IteratorUtil.XOR: op = VectorOperators.XOR; break;
+      default: op = VectorOperators.AND_NOT;
+    }
+    int bound = species.loopBound(number);
+    int k = 0;
+    for(; k < bound; k += species.length())
+      LongVector.fromArray(species, a, astart + k)
+          .lanewise(op, LongVector.fromArray(species, b, bstart + k))
+          .intoArray(out, k);
+    for(; k < number; ++k) {
+      long x = a[astart + k], y = b[bstart + k];
+      switch(operation) {
+        case IteratorUtil.AND: out[k] = x & y; break;
+        case IteratorUtil.OR: out[k] = x | y; break;
+        case IteratorUtil.XOR: out[k] = x ^ y; break;
+        default: out[k] = x & ~y;
+      }
+    }
+  }
+
+  void not(long[] a, int start, int number) {
+    int bound = species.loopBound(number);
+    int k = 0;
+    for(; k < bound; k += species.length())
+      LongVector.fromArray(species, a, start + k).lanewise(VectorOperators.NOT).intoArray(a, start + k);
+    for(; k < number; ++k)
+      a[start + k] = ~a[start + k];
+  }
+
+  String name() {
+    return "vector (" + species + ")";
+  }
+}
@@ -4,13 +4,20 @@ import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 public class TestEWAH extends TestCase {
 
@@ -162,6 +169,18 @@ public class TestEWAH extends TestCase {
     isTrue(bitmap.cardinality()==1);
 
   }
+  public void testNotCardinality() {
+    System.out.println("testing EWAH cardinality after not");
+    Random r = new Random(99);
+    for(int trial = 0; trial < 50; ++trial) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap b = randomBitmap(r, ref);
+      b.not();
+      equal(b.cardinality(), b.computeCardinality());
+      equal(b.getPositions().size(), b.sizeInBits() - ref.cardinality());
+    }
+  }
+
   public void testSetGet () {
     System.out.println("testing EWAH set/get");
     EWAHCompressedBitmap ewcb = new EWAHCompressedBitmap();
@@ -197,6 +216,1531 @@ public class TestEWAH extends TestCase {
       isTrue(result.get(k)==val[k]);
     }
   }
+  public void testLogicalOperations() {
+    System.out.println("testing EWAH and/or/xor/andNot");
+    Random r = new Random(1234);
+    for(int trial = 0; trial < 200; ++trial) {
+      BitSet ref1 = new BitSet();
+      BitSet ref2 = new BitSet();
+      EWAHCompressedBitmap b1 = randomBitmap(r, ref1);
+      EWAHCompressedBitmap b2 = randomBitmap(r, ref2);
+      BitSet and = (BitSet) ref1.clone();
+      and.and(ref2);
+      BitSet or = (BitSet) ref1.clone();
+      or.or(ref2);
+      BitSet xor = (BitSet) ref1.clone();
+      xor.xor(ref2);
+      BitSet andnot = (BitSet) ref1.clone();
+      andnot.andNot(ref2);
+      sameBits(b1.and(b2), and);
+      sameBits(b2.and(b1), and);
+      sameBits(b1.or(b2), or);
+      sameBits(b2.or(b1), or);
+      sameBits(b1.xor(b2), xor);
+      sameBits(b2.xor(b1), xor);
+      sameBits(b1.andNot(b2), andnot);
+      equal(b1.andCardinality(b2), and.cardinality());
+      equal(b1.orCardinality(b2), or.cardinality());
+      equal(b1.xorCardinality(b2), xor.cardinality());
+      equal(b1.andNotCardinality(b2), andnot.cardinality());
+      equal(b1.intersects(b2), ref1.intersects(ref2));
+      equal(b2.intersects(b1), ref1.intersects(ref2));
+      // the operands must be left untouched
+      sameBits(b1, ref1);
+      sameBits(b2, ref2);
+    }
+    EWAHCompressedBitmap evens = new EWAHCompressedBitmap();
+    EWAHCompressedBitmap odds = new EWAHCompressedBitmap();
+    for(int k = 0; k < 100000; k += 2) {
+      evens.set(k);
+      odds.set(k + 1);
+    }
+    isTrue(!evens.intersects(odds));
+    equal(evens.andCardinality(odds), 0);
+    equal(evens.orCardinality(odds), 100000);
+  }
+
+  public void testAggregation() {
+    System.out.println("testing EWAH aggregation");
+    Random r = new Random(4321);
+    for(int trial = 0; trial < 50; ++trial) {
+      int n = r.nextInt(30);
+      EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+      BitSet or = new BitSet();
+      BitSet xor = new BitSet();
+      BitSet and = null;
+      for(int k = 0; k < n; ++k) {
+        BitSet ref = new BitSet();
+        bitmaps[k] = randomBitmap(r, ref);
+        or.or(ref);
+        xor.xor(ref);
+        if(and == null) and = ref; else and.and(ref);
+      }
+      if(and == null) and = new BitSet();
+      sameBits(EWAHCompressedBitmap.or(bitmaps), or);
+      sameBits(EWAHCompressedBitmap.xor(bitmaps), xor);
+      sameBits(EWAHCompressedBitmap.and(bitmaps), and);
+      equal(EWAHCompressedBitmap.and(bitmaps).isEmpty(), and.isEmpty());
+    }
+  }
+
+  public void testParallelAggregation() {
+    System.out.println("testing EWAH parallel aggregation");
+    Random r = new Random(5678);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for(int trial = 0; trial < 10; ++trial) {
+        int n = 1 + r.nextInt(100);
+        EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+        BitSet or = new BitSet();
+        BitSet xor = new BitSet();
+        BitSet and = null;
+        for(int k = 0; k < n; ++k) {
+          BitSet ref = new BitSet();
+          bitmaps[k] = randomBitmap(r, ref);
+          or.or(ref);
+          xor.xor(ref);
+          if(and == null) and = ref; else and.and(ref);
+        }
+        sameBits(ParallelAggregation.or(pool, 2, bitmaps), or);
+        sameBits(ParallelAggregation.xor(pool, 3, bitmaps), xor);
+        sameBits(ParallelAggregation.and(pool, 2, bitmaps), and);
+        sameBits(ParallelAggregation.or(bitmaps), or);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testIntIterator() {
+    System.out.println("testing EWAH int iterator");
+    Random r = new Random(42);
+    for(int trial = 0; trial < 100; ++trial) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap b = randomBitmap(r, ref);
+      IntIterator i = b.intIterator();
+      for(int k = ref.nextSetBit(0); k >= 0; k = ref.nextSetBit(k+1)) {
+        isTrue(i.hasNext());
+        equal(i.next(), k);
+      }
+      isTrue(!i.hasNext());
+      // batches of various sizes, starting after a few calls to next()
+      int[] batch = new int[1 + r.nextInt(200)];
+      i = b.intIterator();
+      int k = ref.nextSetBit(0);
+      for(int c = 0; (c < 3) && (k >= 0); ++c, k = ref.nextSetBit(k+1))
+        equal(i.next(), k);
+      for(int n = i.nextBatch(batch); n > 0; n = i.nextBatch(batch)) {
+        for(int c = 0; c < n; ++c, k = ref.nextSetBit(k+1))
+          equal(batch[c], k);
+      }
+      equal(k, -1);
+      isTrue(!i.hasNext());
+    }
+  }
+
+  public void testRankSelect() {
+    System.out.println("testing EWAH get/rank/select");
+    Random r = new Random(77);
+    for(int trial = 0; trial < 50; ++trial) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap b = randomBitmap(r, ref);
+      for(int k = -1; k <= b.sizeInBits() + 64; k += 1 + r.nextInt(7)) {
+        equal(b.get(k), (k >= 0) && ref.get(k));
+        equal(b.rank(k), k <= 0 ? 0 : ref.get(0, k).cardinality());
+      }
+      int c = 0;
+      for(int k = ref.nextSetBit(0); k >= 0; k = ref.nextSetBit(k+1))
+        equal(b.select(c++), k);
+      // the index must follow the changes
+      int next = b.sizeInBits() + r.nextInt(1000);
+      b.set(next);
+      isTrue(b.get(next));
+      equal(b.rank(next + 1), ref.cardinality() + 1);
+      equal(b.select(ref.cardinality()), next);
+    }
+  }
+
+  public void testImmutableBitmap() {
+    System.out.println("testing EWAH immutable (off-heap) bitmap");
+    Random r = new Random(2010);
+    for(int trial = 0; trial < 100; ++trial) {
+      BitSet ref1 = new BitSet();
+      BitSet ref2 = new BitSet();
+      EWAHCompressedBitmap b1 = randomBitmap(r, ref1);
+      EWAHCompressedBitmap b2 = randomBitmap(r, ref2);
+      ImmutableEWAHCompressedBitmap i1 = offHeap(b1);
+      ImmutableEWAHCompressedBitmap i2 = offHeap(b2);
+      BitSet and = (BitSet) ref1.clone();
+      and.and(ref2);
+      BitSet or = (BitSet) ref1.clone();
+      or.or(ref2);
+      BitSet xor = (BitSet) ref1.clone();
+      xor.xor(ref2);
+      BitSet andnot = (BitSet) ref1.clone();
+      andnot.andNot(ref2);
+      sameBits(i1.and(i2), and);
+      sameBits(i1.or(i2), or);
+      sameBits(i1.xor(i2), xor);
+      sameBits(i1.andNot(i2), andnot);
+      // a mapped bitmap with one on the heap
+      sameBits(i1.and(b2), and);
+      sameBits(i1.or(b2), or);
+      sameBits(i1.xor(b2), xor);
+      sameBits(i1.andNot(b2), andnot);
+      equal(i1.andNot(b2).sizeInBits(), Math.max(b1.sizeInBits(), b2.sizeInBits()));
+      sameBits(i1.toEWAHCompressedBitmap(), ref1);
+      equal(i1.cardinality(), ref1.cardinality());
+      IntIterator it = i1.intIterator();
+      for(int k = ref1.nextSetBit(0); k >= 0; k = ref1.nextSetBit(k+1))
+        equal(it.next(), k);
+      isTrue(!it.hasNext());
+      // the same kernels over heap bitmaps
+      EWAHCompressedBitmap container = new EWAHCompressedBitmap();
+      IteratorUtil.andNot(b1.getIteratingRLW(), b2.getIteratingRLW(), container);
+      container.setSizeInBits(Math.max(b1.sizeInBits(), b2.sizeInBits()));
+      sameBits(container, andnot);
+    }
+  }
+
+  static ImmutableEWAHCompressedBitmap offHeap(EWAHCompressedBitmap b) {
+    ByteBuffer bytes = ByteBuffer.allocateDirect(b.sizeInBytes());
+    bytes.asLongBuffer().put(b.buffer, 0, b.actualsizeinwords);
+    return new ImmutableEWAHCompressedBitmap(bytes, b.sizeInBits());
+  }
+
+  /**
+   * builds a bitmap mixing long runs of ones, long runs of zeroes
+   * and random literal words, and records its bits in ref.
+   */
+  static EWAHCompressedBitmap randomBitmap(Random r, BitSet ref) {
+    EWAHCompressedBitmap ans = new EWAHCompressedBitmap();
+    int pos = 0;
+    int stretches = r.nextInt(20);
+    for(int s = 0; s < stretches; ++s) {
+      int kind = r.nextInt(3);
+      int length = r.nextInt(r.nextBoolean() ? 100 : 5000);
+      for(int k = pos; k < pos + length; ++k) {
+        if((kind == 1) || ((kind == 2) && r.nextInt(4) == 0)) {
+          ans.set(k);
+          ref.set(k);
+        }
+      }
+      pos += length;
+    }
+    return ans;
+  }
+
+  static void sameBits(EWAHCompressedBitmap b, BitSet ref) {
+    Vector<Integer> positions = b.getPositions();
+    equal(positions.size(), ref.cardinality());
+    equal(b.cardinality(), ref.cardinality());
+    equal(b.computeCardinality(), ref.cardinality());
+    int k = 0;
+    for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i+1))
+      equal(positions.get(k++).intValue(), i);
+  }
+
+  public void testSerialization() throws IOException {
+    System.out.println("testing EWAH serialize/deserialize");
+    Random r = new Random(31);
+    ByteBuffer mapped = ByteBuffer.allocateDirect(1 << 20);
+    mapped.order(ByteOrder.LITTLE_ENDIAN); // must not matter
+    BitSet[] refs = new BitSet[20];
+    for(int trial = 0; trial < refs.length; ++trial) {
+      refs[trial] = new BitSet();
+      EWAHCompressedBitmap b = randomBitmap(r, refs[trial]);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bos);
+      b.serialize(dos);
+      dos.close();
+      equal(bos.size(), b.serializedSizeInBytes());
+      EWAHCompressedBitmap copy = new EWAHCompressedBitmap();
+      copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+      sameBits(copy, refs[trial]);
+      equal(copy.sizeInBits(), b.sizeInBits());
+      b.serialize(mapped);
+    }
+    mapped.flip();
+    ByteBuffer again = mapped.duplicate();
+    for(int trial = 0; trial < refs.length; ++trial) {
+      sameBits(ImmutableEWAHCompressedBitmap.map(mapped).toEWAHCompressedBitmap(), refs[trial]);
+      EWAHCompressedBitmap copy = new EWAHCompressedBitmap();
+      copy.deserialize(again);
+      sameBits(copy, refs[trial]);
+      // we must be able to keep adding to what we read
+      int next = copy.sizeInBits() + 100;
+      copy.set(next);
+      refs[trial].set(next);
+      sameBits(copy, refs[trial]);
+    }
+    equal(mapped.remaining(), 0);
+    try {
+      new EWAHCompressedBitmap().deserialize(ByteBuffer.allocate(64));
+      isTrue(false);
+    } catch (IOException expected) {
+    }
+  }
+
+  public void testExternalizationThenSet() throws IOException {
+    System.out.println("testing EWAH set after externalization");
+    EWAHCompressedBitmap ewcb = new EWAHCompressedBitmap();
+    ewcb.set(5);
+    ewcb.set(200);
+    ewcb.set(300);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    ewcb.writeExternal(oo);
+    oo.close();
+    ewcb = new EWAHCompressedBitmap();
+    ewcb.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    ewcb.set(1000);
+    Vector<Integer> result = ewcb.getPositions();
+    equal(result.size(), 4);
+    equal(result.get(3).intValue(), 1000);
+    equal(ewcb.cardinality(), 4);
+  }
+
+  public void testLongPositions() throws IOException {
+    System.out.println("testing EWAH positions past 2^31");
+    long far = 5000000000L;
+    EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+    b.set(3);
+    b.set(far);
+    b.set(far + 100);
+    equal(b.sizeInBitsAsLong(), far + 101);
+    try {
+      b.sizeInBits();
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    isTrue(b.get(far));
+    isTrue(!b.get(far + 1));
+    isTrue(b.get(far + 100));
+    equal(b.rank(far), 1);
+    equal(b.rank(far + 1), 2);
+    equal(b.rank(far + 101), 3);
+    long[] positions = new long[8];
+    equal(b.longIterator().nextBatch(positions), 3);
+    equal(positions[0], 3);
+    equal(positions[1], far);
+    equal(positions[2], far + 100);
+    LongIterator i = b.longIterator();
+    i.next();
+    equal(i.next(), far);
+    EWAHCompressedBitmap c = new EWAHCompressedBitmap();
+    c.set(far + 100);
+    EWAHCompressedBitmap and = b.and(c);
+    equal(and.sizeInBitsAsLong(), far + 101);
+    equal(and.cardinality(), 1);
+    isTrue(and.get(far + 100));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    b.serialize(dos);
+    dos.close();
+    EWAHCompressedBitmap copy = new EWAHCompressedBitmap();
+    copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    equal(copy.sizeInBitsAsLong(), far + 101);
+    equal(copy.rank(far + 101), 3);
+    bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    b.writeExternal(oo);
+    oo.close();
+    copy = new EWAHCompressedBitmap();
+    copy.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    equal(copy.sizeInBitsAsLong(), far + 101);
+    copy.set(far + 200);
+    equal(copy.rank(far + 201), 4);
+    // positions and counts that do not fit an int throw rather than wrap
+    equal(b.select(1l), far);
+    try {
+      b.select(1);
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    IntIterator ii = b.intIterator();
+    equal(ii.next(), 3);
+    try {
+      ii.next();
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    try {
+      b.getPositions();
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    java.util.Iterator<Integer> boxed = b.iterator();
+    equal(boxed.next().intValue(), 3);
+    try {
+      boxed.next();
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    try {
+      IteratorUtil.intIterator(b.getIteratingRLW()).nextBatch(new int[8]);
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    // more than 2^31 bits set
+    EWAHCompressedBitmap big = new EWAHCompressedBitmap();
+    big.setRange(10, 3000000010L);
+    big.set(far);
+    equal(big.cardinalityAsLong(), 3000000001L);
+    try {
+      big.cardinality();
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    equal(big.andCardinalityAsLong(big), 3000000001L);
+    equal(big.orCardinalityAsLong(b), 3000000003L);
+    equal(big.xorCardinalityAsLong(b), 3000000002L);
+    equal(big.andNotCardinalityAsLong(b), 3000000000L);
+    try {
+      big.andCardinality(big);
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+    equal(IteratorUtil.cardinalityAsLong(big.getIteratingRLW()), 3000000001L);
+    equal(big.rank(2500000000L), 2499999990L);
+    equal(big.rank(1000), 990);
+    try {
+      big.rank(Integer.MAX_VALUE);
+      isTrue(true);
+    } catch (ArithmeticException unexpected) {
+      isTrue(false);
+    }
+    equal(big.select(2999999999L), 3000000009L);
+    equal(big.select(3000000000L), far);
+    equal(big.select(5), 15);
+    isTrue(big.get(3000000009L));
+    isTrue(!big.get(3000000010L));
+    LongIterator li = big.longIterator();
+    long[] batch = new long[4];
+    equal(li.nextBatch(batch), 4);
+    equal(batch[3], 13);
+    bos = new ByteArrayOutputStream();
+    dos = new DataOutputStream(bos);
+    big.serialize(dos);
+    dos.close();
+    ImmutableEWAHCompressedBitmap mapped = ImmutableEWAHCompressedBitmap.map(ByteBuffer.wrap(bos.toByteArray()));
+    equal(mapped.cardinalityAsLong(), 3000000001L);
+    // there is one serialization format
+    ByteBuffer other = ByteBuffer.wrap(bos.toByteArray());
+    other.putInt(4, 2);
+    try {
+      new EWAHCompressedBitmap().deserialize(other);
+      isTrue(false);
+    } catch (IOException expected) {
+    }
+  }
+
+  public void testLazyExpressions() {
+    System.out.println("testing EWAH lazy expressions");
+    Random r = new Random(1313);
+    for(int trial = 0; trial < 100; ++trial) {
+      BitSet[] refs = new BitSet[4];
+      EWAHCompressedBitmap[] b = new EWAHCompressedBitmap[4];
+      for(int k = 0; k < 4; ++k) {
+        refs[k] = new BitSet();
+        b[k] = randomBitmap(r, refs[k]);
+      }
+      // (A OR B) AND NOT (C XOR D)
+      BitSet expected = (BitSet) refs[0].clone();
+      expected.or(refs[1]);
+      BitSet cd = (BitSet) refs[2].clone();
+      cd.xor(refs[3]);
+      expected.andNot(cd);
+      EWAHCompressedBitmap eager = b[0].or(b[1]).andNot(b[2].xor(b[3]));
+      EWAHCompressedBitmap lazy = new EWAHCompressedBitmap();
+      IteratorUtil.materialize(IteratorUtil.andNot(
+          IteratorUtil.or(b[0].getIteratingRLW(), b[1].getIteratingRLW()),
+          IteratorUtil.xor(b[2].getIteratingRLW(), b[3].getIteratingRLW())), lazy);
+      lazy.setSizeInBits(eager.sizeInBitsAsLong());
+      sameBits(lazy, expected);
+      equal(lazy.sizeInBytes(), eager.sizeInBytes());
+      // A AND (NOT B): counted and iterated without materializing
+      EWAHCompressedBitmap notb;
+      try {
+        notb = (EWAHCompressedBitmap) b[1].clone();
+      } catch (CloneNotSupportedException cnse) {
+        throw new RuntimeException(cnse);
+      }
+      notb.not();
+      Vector<Integer> anotb = b[0].and(notb).getPositions();
+      equal(IteratorUtil.cardinality(IteratorUtil.and(b[0].getIteratingRLW(),
+          IteratorUtil.not(b[1].getIteratingRLW()))), anotb.size());
+      IntIterator i = IteratorUtil.intIterator(IteratorUtil.and(b[0].getIteratingRLW(),
+          IteratorUtil.not(b[1].getIteratingRLW())));
+      for(int pos : anotb)
+        equal(i.next(), pos);
+      isTrue(!i.hasNext());
+      // the operands are left untouched
+      for(int k = 0; k < 4; ++k)
+        sameBits(b[k], refs[k]);
+    }
+    // a result much longer than one chunk
+    EWAHCompressedBitmap evens = new EWAHCompressedBitmap();
+    EWAHCompressedBitmap thirds = new EWAHCompressedBitmap();
+    for(int k = 0; k < 1000000; ++k) {
+      if(k % 2 == 0) evens.set(k);
+      if(k % 3 == 0) thirds.set(k);
+    }
+    IteratingRLW sixths = IteratorUtil.and(evens.getIteratingRLW(), thirds.getIteratingRLW());
+    equal(IteratorUtil.cardinality(IteratorUtil.or(sixths, IteratorUtil.and(evens.getIteratingRLW(),
+        thirds.getIteratingRLW()))), evens.andCardinality(thirds));
+    // dense operands, with long stretches of literal words under long
+    // runs: the chunks stay small however long the stretches
+    EWAHCompressedBitmap[] dense = new EWAHCompressedBitmap[3];
+    for(int k = 0; k < 3; ++k) {
+      dense[k] = new EWAHCompressedBitmap();
+      for(int w = 0; w < 200000; ++w)
+        dense[k].add((k == 1) && (w < 100000) ? ~0l : r.nextLong());
+    }
+    for(int op = IteratorUtil.AND; op <= IteratorUtil.ANDNOT; ++op) {
+      BufferedIteratingRLW inner = new BufferedIteratingRLW(op, dense[0].getIteratingRLW(), dense[1].getIteratingRLW());
+      BufferedIteratingRLW outer = new BufferedIteratingRLW(IteratorUtil.OR, inner, dense[2].getIteratingRLW());
+      EWAHCompressedBitmap lazy = new EWAHCompressedBitmap();
+      while(outer.size() > 0) {
+        isTrue(inner.output.buffer.length <= 2 * BufferedIteratingRLW.chunk);
+        isTrue(outer.output.buffer.length <= 2 * BufferedIteratingRLW.chunk);
+        IteratorUtil.discharge(outer, lazy, outer.size());
+      }
+      EWAHCompressedBitmap eager;
+      switch(op) {
+        case IteratorUtil.AND: eager = dense[0].and(dense[1]); break;
+        case IteratorUtil.OR: eager = dense[0].or(dense[1]); break;
+        case IteratorUtil.XOR: eager = dense[0].xor(dense[1]); break;
+        default: eager = dense[0].andNot(dense[1]);
+      }
+      eager = eager.or(dense[2]);
+      lazy.setSizeInBits(eager.sizeInBitsAsLong());
+      equal(lazy.toString(), eager.toString());
+    }
+  }
+
+  public void testQueryEngine() {
+    System.out.println("testing EWAH query engine");
+    Random r = new Random(2024);
+    java.util.Map<String, EWAHCompressedBitmap> bitmaps = new java.util.HashMap<String, EWAHCompressedBitmap>();
+    java.util.Map<String, BitSet> refs = new java.util.HashMap<String, BitSet>();
+    int universe = 0;
+    for(int k = 0; k < 8; ++k) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap b = randomBitmap(r, ref);
+      bitmaps.put("b" + k, b);
+      refs.put("b" + k, ref);
+      universe = Math.max(universe, b.sizeInBits());
+    }
+    bitmaps.put("empty", new EWAHCompressedBitmap());
+    refs.put("empty", new BitSet());
+    QueryEngine engine = new QueryEngine(bitmaps);
+    for(int trial = 0; trial < 300; ++trial) {
+      Query q = randomQuery(r, 3);
+      BitSet expected = evaluate(q, refs, universe);
+      EWAHCompressedBitmap answer = engine.evaluate(q);
+      sameBits(answer, expected);
+      equal(engine.cardinality(q), expected.cardinality());
+    }
+    // the bitmaps are left untouched
+    for(String name : bitmaps.keySet())
+      sameBits(bitmaps.get(name), refs.get(name));
+    // nested ORs become one merge, ANDs start with the smallest operand
+    Query p = engine.plan(Query.or(Query.bitmap("b0"), Query.or(Query.bitmap("b1"), Query.bitmap("b2"))));
+    equal(p.operands.length, 3);
+    p = engine.plan(Query.and(Query.not(Query.bitmap("b3")), Query.bitmap("b0"), Query.bitmap("empty")));
+    equal(p.toString(), "(empty AND b0 AND NOT b3)");
+    equal(engine.plan(Query.not(Query.not(Query.bitmap("b1")))).toString(), "b1");
+    equal(engine.plan(Query.and(Query.not(Query.bitmap("b1")), Query.not(Query.bitmap("b2")))).type, Query.NOT);
+    try {
+      engine.evaluate(Query.bitmap("nothere"));
+      isTrue(false);
+    } catch (IllegalArgumentException expected) {
+    }
+    // operands with 2^31 bits or more set
+    long far = 3000000000L;
+    java.util.Map<String, EWAHCompressedBitmap> large = new java.util.HashMap<String, EWAHCompressedBitmap>();
+    EWAHCompressedBitmap big = new EWAHCompressedBitmap();
+    big.setRange(0, far);
+    large.put("big", big);
+    EWAHCompressedBitmap other = new EWAHCompressedBitmap();
+    other.setRange(100, far + 100);
+    large.put("other", other);
+    EWAHCompressedBitmap small = new EWAHCompressedBitmap();
+    small.set(5);
+    small.set(1000);
+    small.set(far + 10);
+    large.put("small", small);
+    engine = new QueryEngine(large);
+    Query tiny = Query.and(Query.bitmap("big"), Query.bitmap("small"));
+    equal(engine.plan(tiny).toString(), "(big AND small)");
+    equal(engine.cardinality(tiny), 2);
+    equal(engine.cardinality(Query.and(Query.bitmap("big"), Query.bitmap("other"), Query.bitmap("small"))), 1);
+    equal(engine.cardinalityAsLong(Query.bitmap("big")), far);
+    equal(engine.cardinalityAsLong(Query.or(Query.bitmap("big"), Query.bitmap("small"))), far + 1);
+    equal(engine.cardinalityAsLong(Query.and(Query.bitmap("big"), Query.not(Query.bitmap("small")))), far - 2);
+    equal(engine.cardinalityAsLong(Query.and(Query.bitmap("big"), Query.bitmap("other"))), far - 100);
+    try {
+      engine.cardinality(Query.bitmap("big"));
+      isTrue(false);
+    } catch (ArithmeticException expected) {
+    }
+  }
+
+  static Query randomQuery(Random r, int depth) {
+    int type = (depth == 0) ? Query.BITMAP : r.nextInt(4);
+    if(type == Query.BITMAP)
+      return Query.bitmap(r.nextInt(10) == 0 ? "empty" : "b" + r.nextInt(8));
+    if(type == Query.NOT)
+      return Query.not(randomQuery(r, depth - 1));
+    Query[] operands = new Query[1 + r.nextInt(4)];
+    for(int k = 0; k < operands.length; ++k)
+      operands[k] = randomQuery(r, depth - 1);
+    return type == Query.AND ? Query.and(operands) : Query.or(operands);
+  }
+
+  static BitSet evaluate(Query q, java.util.Map<String, BitSet> refs, int universe) {
+    if(q.type == Query.BITMAP)
+      return (BitSet) refs.get(q.name).clone();
+    if(q.type == Query.NOT) {
+      BitSet answer = evaluate(q.operands[0], refs, universe);
+      answer.flip(0, universe);
+      return answer;
+    }
+    BitSet answer = evaluate(q.operands[0], refs, universe);
+    for(int k = 1; k < q.operands.length; ++k) {
+      if(q.type == Query.AND)
+        answer.and(evaluate(q.operands[k], refs, universe));
+      else
+        answer.or(evaluate(q.operands[k], refs, universe));
+    }
+    return answer;
+  }
+
+  static void equal(String x, String y) {
+    if(!x.equals(y)) throw new RuntimeException(x+" != "+y);
+  }
+
+  public void testBitmapIndexBuilder() {
+    System.out.println("testing EWAH bitmap index builder");
+    Random r = new Random(515);
+    for(int trial = 0; trial < 30; ++trial) {
+      int[] column = new int[r.nextInt(50000)];
+      int distinct = 1 + r.nextInt(trial % 3 == 0 ? 5 : 500);
+      for(int k = 0; k < column.length; ) {
+        // runs of various lengths, some values negative or large
+        int value = r.nextInt(distinct) - (trial % 2 == 0 ? 0 : distinct / 2);
+        if(trial % 5 == 0) value *= 100000;
+        int length = r.nextBoolean() ? 1 : r.nextInt(300);
+        for(int j = 0; (j < length) && (k < column.length); ++j)
+          column[k++] = value;
+      }
+      java.util.Map<Integer, BitSet> refs = new java.util.HashMap<Integer, BitSet>();
+      for(int k = 0; k < column.length; ++k) {
+        if(!refs.containsKey(column[k])) refs.put(column[k], new BitSet());
+        refs.get(column[k]).set(k);
+      }
+      java.util.Map<Integer, EWAHCompressedBitmap> index = (trial % 2 == 0)
+          ? BitmapIndexBuilder.build(column) : buildRowByRow(column);
+      equal(index.size(), refs.size());
+      int total = 0;
+      for(java.util.Map.Entry<Integer, EWAHCompressedBitmap> e : index.entrySet()) {
+        EWAHCompressedBitmap b = e.getValue();
+        sameBits(b, refs.get(e.getKey()));
+        equal(b.sizeInBits(), column.length);
+        equal(b.buffer.length, b.actualsizeinwords);
+        total += b.cardinality();
+      }
+      equal(total, column.length);
+    }
+  }
+
+  static java.util.Map<Integer, EWAHCompressedBitmap> buildRowByRow(int[] column) {
+    BitmapIndexBuilder builder = new BitmapIndexBuilder();
+    for(int value : column)
+      builder.add(value);
+    equal(builder.rows(), column.length);
+    return builder.build();
+  }
+
+  public void testRowReordering() {
+    System.out.println("testing EWAH row reordering");
+    // two columns: {0, 1} x {0, 1, 2}, rows given in a scrambled order
+    int[][] table = {{1, 0, 1, 0, 1, 0}, {2, 1, 0, 0, 1, 2}};
+    int[][] lexico = RowReordering.apply(table, RowReordering.permutation(table, RowReordering.LEXICOGRAPHIC));
+    equal(java.util.Arrays.toString(lexico[0]), "[0, 0, 0, 1, 1, 1]");
+    equal(java.util.Arrays.toString(lexico[1]), "[0, 1, 2, 0, 1, 2]");
+    int[][] gray = RowReordering.apply(table, RowReordering.permutation(table, RowReordering.GRAYCODE));
+    equal(java.util.Arrays.toString(gray[0]), "[0, 0, 0, 1, 1, 1]");
+    equal(java.util.Arrays.toString(gray[1]), "[0, 1, 2, 2, 1, 0]");
+    Random r = new Random(1616);
+    int rows = 100000;
+    int[][] columns = new int[3][rows];
+    for(int k = 0; k < rows; ++k) {
+      columns[0][k] = r.nextInt(4);
+      columns[1][k] = r.nextInt(20) * 1000 - 5000;
+      columns[2][k] = r.nextInt(300);
+    }
+    for(int order : new int[] {RowReordering.LEXICOGRAPHIC, RowReordering.GRAYCODE}) {
+      RowReordering.Report report = RowReordering.reorder(columns, order);
+      int[] p = report.getPermutation();
+      BitSet seen = new BitSet();
+      for(int row : p) seen.set(row);
+      equal(seen.cardinality(), rows);
+      isTrue(report.getSizeInBytesAfter() * 2 < report.getSizeInBytesBefore());
+      equal(report.getSizeInBytesAfter(),
+          RowReordering.compressedSizeInBytes(RowReordering.apply(columns, p), null));
+    }
+  }
+
+  public void testAppend() {
+    System.out.println("testing EWAH append");
+    Random r = new Random(1717);
+    for(int t = 0; t < 200; ++t) {
+      BitSet ref = new BitSet();
+      randomBitmap(r, ref);
+      int total = ref.length() + r.nextInt(200);
+      // cut the rows in partitions, half of the cuts on word boundaries
+      int parts = 1 + r.nextInt(5);
+      int[] cuts = new int[parts + 1];
+      cuts[parts] = total;
+      for(int p = 1; p < parts; ++p) {
+        int c = r.nextInt(total + 1);
+        cuts[p] = r.nextBoolean() ? c - c % 64 : c;
+      }
+      java.util.Arrays.sort(cuts);
+      EWAHCompressedBitmap[] partitions = new EWAHCompressedBitmap[parts];
+      for(int p = 0; p < parts; ++p) {
+        partitions[p] = new EWAHCompressedBitmap();
+        for(int i = ref.nextSetBit(cuts[p]); i >= 0 && i < cuts[p + 1]; i = ref.nextSetBit(i + 1))
+          partitions[p].set(i - cuts[p]);
+        partitions[p].setSizeInBits(cuts[p + 1] - cuts[p]);
+      }
+      EWAHCompressedBitmap all = EWAHCompressedBitmap.concat(partitions);
+      equal(all.sizeInBits(), total);
+      sameBits(all, ref);
+      // the result can still be extended
+      all.set(total + 3);
+      ref.set(total + 3);
+      sameBits(all, ref);
+      equal(all.or(partitions[0]).cardinality(), ref.cardinality());
+    }
+    // runs of ones across an unaligned boundary, and appending to itself
+    EWAHCompressedBitmap ones = new EWAHCompressedBitmap();
+    for(int k = 0; k < 1000; ++k) ones.set(k);
+    EWAHCompressedBitmap x = EWAHCompressedBitmap.concat(ones, ones);
+    x.append(x);
+    equal(x.sizeInBits(), 4000);
+    equal(x.cardinality(), 4000);
+    isTrue(x.sizeInBytes() < 8 * 8);
+    // many small partitions, some of them results of and (whose size in
+    // bits was set directly): each append only walks the partition
+    BitSet ref = new BitSet();
+    EWAHCompressedBitmap[] partitions = new EWAHCompressedBitmap[20000];
+    long offset = 0;
+    for(int p = 0; p < partitions.length; ++p) {
+      EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+      int size = 1 + r.nextInt(150);
+      for(int k = 0; k < size; ++k)
+        if(r.nextInt(3) == 0) b.set(k);
+      b.setSizeInBits(size);
+      partitions[p] = (p % 3 == 0) ? b.and(b) : b;
+      for(IntIterator i = partitions[p].intIterator(); i.hasNext(); )
+        ref.set((int) offset + i.next());
+      offset += size;
+    }
+    EWAHCompressedBitmap all = EWAHCompressedBitmap.concat(partitions);
+    equal(all.sizeInBitsAsLong(), offset);
+    sameBits(all, ref);
+  }
+
+  public void testMutableBitmap() {
+    System.out.println("testing EWAH mutable bitmap");
+    Random r = new Random(1818);
+    for(int maxpending : new int[] {1, 7, 100, 4096}) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap initial = randomBitmap(r, ref);
+      MutableEWAHCompressedBitmap m = new MutableEWAHCompressedBitmap(initial, maxpending);
+      int range = Math.max(ref.length(), 1000) + 500;
+      for(int k = 0; k < 3000; ++k) {
+        int i = r.nextInt(range);
+        if(r.nextBoolean()) {
+          m.set(i);
+          ref.set(i);
+        } else {
+          m.clear(i);
+          ref.clear(i);
+        }
+        isTrue(m.getNumberOfPendingUpdates() < maxpending);
+        int probe = r.nextInt(range);
+        equal(m.get(probe), ref.get(probe));
+        if(k % 500 == 0)
+          equal(m.cardinality(), ref.cardinality());
+      }
+      equal(m.cardinality(), ref.cardinality());
+      sameBits(m.getBitmap(), ref);
+      equal(m.getNumberOfPendingUpdates(), 0);
+      isTrue(m.sizeInBitsAsLong() >= ref.length());
+    }
+    MutableEWAHCompressedBitmap far = new MutableEWAHCompressedBitmap();
+    far.set(5);
+    far.set((1l << 62) - 1);
+    isTrue(far.get((1l << 62) - 1));
+    isTrue(!far.get(1l << 61));
+    equal(far.cardinalityAsLong(), 2);
+    equal(far.sizeInBitsAsLong(), 1l << 62);
+    for(long bad : new long[] {-1, 1l << 62, Long.MAX_VALUE}) {
+      try {
+        far.set(bad);
+        isTrue(false);
+      } catch (IllegalArgumentException expected) {}
+      try {
+        far.clear(bad);
+        isTrue(false);
+      } catch (IllegalArgumentException expected) {}
+    }
+    equal(far.getNumberOfPendingUpdates(), 2);
+  }
+
+  public void testSetRangeAndAddAll() {
+    System.out.println("testing EWAH setRange and addAll");
+    Random r = new Random(1919);
+    for(int t = 0; t < 300; ++t) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+      int pos = 0;
+      for(int s = r.nextInt(30); s > 0; --s) {
+        pos += r.nextInt(r.nextBoolean() ? 10 : 300);
+        int length = r.nextInt(r.nextBoolean() ? 70 : 1000);
+        switch(r.nextInt(3)) {
+          case 0:
+            b.setRange(pos, pos + length);
+            ref.set(pos, pos + length);
+            break;
+          case 1:
+            int[] sorted = new int[length / 4];
+            for(int k = 0; k < sorted.length; ++k) {
+              sorted[k] = pos + r.nextInt(length);
+              ref.set(sorted[k]);
+            }
+            java.util.Arrays.sort(sorted);
+            b.addAll(sorted, 0, sorted.length);
+            if(sorted.length > 0) length = sorted[sorted.length - 1] - pos + 1;
+            break;
+          default:
+            for(int k = pos; k < pos + length; k += 1 + r.nextInt(3)) {
+              b.set(k);
+              ref.set(k);
+            }
+        }
+        pos += length;
+      }
+      sameBits(b, ref);
+      equal(b.sizeInBits(), ref.length());
+      EWAHCompressedBitmap x = new EWAHCompressedBitmap();
+      for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1))
+        x.set(i);
+      equal(b.toString(), x.toString());
+    }
+    EWAHCompressedBitmap big = new EWAHCompressedBitmap();
+    big.setRange(3, 10000003);
+    big.set(10000010);
+    equal(big.cardinality(), 10000001);
+    isTrue(big.sizeInBytes() <= 6 * 8);
+    EWAHCompressedBitmap of = EWAHCompressedBitmap.bitmapOf(1, 5, 64, 65, 100000);
+    equal(of.getPositions().toString(), "[1, 5, 64, 65, 100000]");
+    try {
+      of.addAll(new int[] {200000, 100}, 0, 2);
+      isTrue(false);
+    } catch (IllegalArgumentException iae) {
+      equal(of.cardinality(), 5);
+    }
+    // the results of and/andNot may end with a run, or with implicit
+    // zero words, rather than with a literal word
+    EWAHCompressedBitmap c = EWAHCompressedBitmap.bitmapOf(3).and(EWAHCompressedBitmap.bitmapOf(5));
+    c.setRange(10, 20);
+    equal(c.getPositions().toString(), "[10, 11, 12, 13, 14, 15, 16, 17, 18, 19]");
+    c = EWAHCompressedBitmap.bitmapOf(3).and(EWAHCompressedBitmap.bitmapOf(5));
+    c.addAll(new int[] {40, 41}, 0, 2);
+    equal(c.getPositions().toString(), "[40, 41]");
+    for(int t = 0; t < 300; ++t) {
+      BitSet ra = new BitSet(), rb = new BitSet();
+      EWAHCompressedBitmap a = randomBitmap(r, ra), b = randomBitmap(r, rb);
+      BitSet ref = (BitSet) ra.clone();
+      if(t % 2 == 0) {
+        ref.and(rb);
+        c = a.and(b);
+      } else {
+        ref.andNot(rb);
+        c = a.andNot(b);
+      }
+      int pos = c.sizeInBits() + r.nextInt(r.nextBoolean() ? 3 : 200);
+      int length = 1 + r.nextInt(r.nextBoolean() ? 60 : 500);
+      if(r.nextBoolean()) {
+        c.setRange(pos, pos + length);
+        ref.set(pos, pos + length);
+      } else {
+        int[] sorted = new int[1 + length / 8];
+        for(int k = 0; k < sorted.length; ++k) {
+          sorted[k] = pos + r.nextInt(length);
+          ref.set(sorted[k]);
+        }
+        java.util.Arrays.sort(sorted);
+        c.addAll(sorted, 0, sorted.length);
+      }
+      sameBits(c, ref);
+      IntIterator it = c.intIterator();
+      for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1))
+        equal(it.next(), i);
+      isTrue(!it.hasNext());
+      c.set(c.sizeInBits() + 70);
+      ref.set(c.sizeInBits() - 1);
+      sameBits(c, ref);
+    }
+  }
+
+  public void testOperationsIntoContainer() {
+    System.out.println("testing EWAH operations into a reused container");
+    Random r = new Random(2020);
+    EWAHCompressedBitmap container = new EWAHCompressedBitmap(1);
+    container.ensureCapacity(1 << 12);
+    long[] buffer = container.buffer;
+    for(int t = 0; t < 200; ++t) {
+      BitSet ra = new BitSet(), rb = new BitSet();
+      EWAHCompressedBitmap a = randomBitmap(r, ra);
+      EWAHCompressedBitmap b = randomBitmap(r, rb);
+      BitSet expected = (BitSet) ra.clone();
+      switch(t % 4) {
+        case 0:
+          a.andInto(b, container);
+          expected.and(rb);
+          break;
+        case 1:
+          a.orInto(b, container);
+          expected.or(rb);
+          break;
+        case 2:
+          a.xorInto(b, container);
+          expected.xor(rb);
+          break;
+        default:
+          a.andNotInto(b, container);
+          expected.andNot(rb);
+      }
+      sameBits(container, expected);
+      equal(container.sizeInBits(), Math.max(a.sizeInBits(), b.sizeInBits()));
+    }
+    isTrue(container.buffer == buffer);
+    container.trim();
+    equal(container.buffer.length, container.sizeInBytes() / 8);
+    container.clear();
+    equal(container.cardinality(), 0);
+    EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 2, 3);
+    try {
+      a.orInto(a, a);
+      isTrue(false);
+    } catch (IllegalArgumentException iae) {
+      equal(a.cardinality(), 3);
+    }
+  }
+
+  public void testDirectBitmap() {
+    System.out.println("testing EWAH off-heap bitmap");
+    Random r = new Random(2121);
+    for(int t = 0; t < 50; ++t) {
+      BitSet ra = new BitSet(), rb = new BitSet();
+      EWAHCompressedBitmap a = randomBitmap(r, ra);
+      EWAHCompressedBitmap b = randomBitmap(r, rb);
+      // one built bit by bit from a small buffer, one copied
+      DirectEWAHCompressedBitmap da = new DirectEWAHCompressedBitmap(1);
+      for(int i = ra.nextSetBit(0); i >= 0; i = ra.nextSetBit(i + 1))
+        da.set(i);
+      DirectEWAHCompressedBitmap db = DirectEWAHCompressedBitmap.copyOf(b);
+      equal(da.cardinality(), ra.cardinality());
+      equal(da.sizeInBytes(), a.sizeInBytes());
+      sameBits(da.toEWAHCompressedBitmap(), ra);
+      for(int k = 0; k < 100; ++k) {
+        int i = r.nextInt(ra.length() + 10);
+        equal(da.get(i), ra.get(i));
+      }
+      DirectEWAHCompressedBitmap[] results = {da.and(db), da.or(db), da.xor(db), da.andNot(db)};
+      EWAHCompressedBitmap[] expected = {a.and(b), a.or(b), a.xor(b), a.andNot(b)};
+      for(int k = 0; k < results.length; ++k) {
+        equal(results[k].cardinality(), expected[k].cardinality());
+        equal(results[k].sizeInBits(), expected[k].sizeInBits());
+        equal(results[k].toEWAHCompressedBitmap().getPositions().toString(), expected[k].getPositions().toString());
+        results[k].close();
+      }
+      da.close();
+      db.close();
+      try {
+        da.set(1 << 30);
+        isTrue(false);
+      } catch (IllegalStateException ise) {
+        // closed
+      }
+    }
+    DirectEWAHCompressedBitmap ones = new DirectEWAHCompressedBitmap();
+    ones.addStreamOfEmptyWords(true, 1 << 20);
+    equal(ones.cardinality(), 64 << 20);
+    equal(ones.sizeInBytes(), 8);
+    ones.close();
+    // a cursor taken before the bitmap grows reads the words as they were
+    DirectEWAHCompressedBitmap d = new DirectEWAHCompressedBitmap(2);
+    d.set(3);
+    d.set(100);
+    IntIterator before = d.intIterator();
+    IteratingRLW cursor = d.getIteratingRLW();
+    for(int k = 1000; k < 64 * 1000; k += 7)
+      d.set(k);
+    equal(before.next(), 3);
+    equal(before.next(), 100);
+    isTrue(!before.hasNext());
+    equal(IteratorUtil.cardinality(cursor), 2);
+    // and throws once it is closed
+    before = d.intIterator();
+    equal(before.next(), 3);
+    cursor = d.getIteratingRLW();
+    d.close();
+    try {
+      while(before.hasNext()) before.next();
+      isTrue(false);
+    } catch (IllegalStateException ise) {
+      // closed
+    }
+    try {
+      IteratorUtil.materialize(cursor, new EWAHCompressedBitmap());
+      isTrue(false);
+    } catch (IllegalStateException ise) {
+      // closed
+    }
+    // a ByteBuffer cannot hold more than maxsizeinwords words
+    try {
+      new DirectEWAHCompressedBitmap(DirectEWAHCompressedBitmap.maxsizeinwords + 1);
+      isTrue(false);
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testStatistics() {
+    System.out.println("testing EWAH statistics");
+    EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+    b.setRange(0, 64 * 10);
+    b.set(64 * 20 + 1);
+    b.set(64 * 21 + 2);
+    b.setRange(64 * 30, 64 * 34);
+    BitmapStatistics st = BitmapStatistics.of(b);
+    equal(st.getNumberOfBitmaps(), 1);
+    equal(st.getCardinality(), b.cardinality());
+    equal(st.getSizeInBits(), b.sizeInBits());
+    equal(st.getUsedWords(), b.sizeInBytes() / 8);
+    isTrue(st.getAllocatedWords() >= st.getUsedWords());
+    equal(st.getCleanOneWords(), 14);
+    equal(st.getCleanZeroWords(), 10 + 8);
+    equal(st.getLiteralWords(), 2);
+    equal(st.getMarkerWords() + st.getLiteralWords(), st.getUsedWords());
+    long[] runs = st.getRunHistogram();
+    equal(runs[2], 1); // 4 words of ones
+    equal(runs[3], 3); // 10, 10 and 8 words
+    equal(st.getLiteralHistogram()[1], 1);
+    isTrue(st.getCompressionRatio() < 0.2);
+    equal(b.toString().split("\n").length, 1 + 2 * (int) st.getMarkerWords());
+    Random r = new Random(2222);
+    java.util.List<EWAHCompressedBitmap> all = new java.util.ArrayList<EWAHCompressedBitmap>();
+    long used = 0, cardinality = 0, markers = 0;
+    for(int k = 0; k < 20; ++k) {
+      EWAHCompressedBitmap x = randomBitmap(r, new BitSet());
+      all.add(x);
+      BitmapStatistics sx = BitmapStatistics.of(x);
+      used += sx.getUsedWords();
+      cardinality += sx.getCardinality();
+      markers += sx.getMarkerWords();
+      long clean = 0;
+      long[] h = sx.getRunHistogram();
+      for(int j = 0; j < h.length; ++j) clean += h[j];
+      isTrue(clean <= sx.getMarkerWords());
+      equal(sx.getCleanZeroWords() + sx.getCleanOneWords() + sx.getLiteralWords(),
+          (x.sizeInBits() + 63) / 64);
+    }
+    BitmapStatistics sall = BitmapStatistics.of(all);
+    equal(sall.getNumberOfBitmaps(), 20);
+    equal(sall.getUsedWords(), used);
+    equal(sall.getCardinality(), cardinality);
+    equal(sall.getMarkerWords(), markers);
+    isTrue(sall.toString().startsWith("20 bitmap(s)"));
+  }
+
+  public void testOperationListener() throws IOException {
+    System.out.println("testing EWAH operation listener");
+    final java.util.List<long[]> reports = new java.util.ArrayList<long[]>();
+    Instrumentation.setListener(new OperationListener() {
+      public void operationDone(int operation, long nanos, long inputwords, long outputwords, long allocatedbytes) {
+        reports.add(new long[] {operation, nanos, inputwords, outputwords, allocatedbytes});
+      }
+    });
+    try {
+      EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 100, 1000);
+      EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(100, 5000);
+      EWAHCompressedBitmap c = a.or(b);
+      equal(reports.size(), 1);
+      long[] r = reports.get(0);
+      equal(r[0], Instrumentation.OR);
+      isTrue(r[1] >= 0);
+      equal(r[2], a.sizeInBytes() / 8 + b.sizeInBytes() / 8);
+      equal(r[3], c.sizeInBytes() / 8);
+      isTrue(r[4] > 0);
+      EWAHCompressedBitmap container = new EWAHCompressedBitmap();
+      a.andInto(b, container);
+      equal(reports.get(1)[0], Instrumentation.AND);
+      equal(reports.get(1)[4], 0);
+      c.not();
+      equal(reports.get(2)[0], Instrumentation.NOT);
+      equal(reports.get(2)[3], c.sizeInBytes() / 8);
+      equal(a.getPositions().size(), 3);
+      equal(reports.get(3)[0], Instrumentation.ITERATE);
+      equal(reports.get(3)[3], 3);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      a.serialize(new DataOutputStream(bos));
+      EWAHCompressedBitmap d = new EWAHCompressedBitmap();
+      d.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+      equal(reports.get(4)[0], Instrumentation.DESERIALIZE);
+      equal(reports.get(4)[3], a.sizeInBytes() / 8);
+      equal(Instrumentation.name(Instrumentation.ANDNOT), "andNot");
+    } finally {
+      Instrumentation.setListener(null);
+    }
+    EWAHCompressedBitmap.bitmapOf(1).or(EWAHCompressedBitmap.bitmapOf(2));
+    equal(reports.size(), 5);
+  }
+
+  public void testWordKernels() {
+    System.out.println("testing EWAH word kernels (" + WordKernel.instance.name() + ")");
+    Random r = new Random(2424);
+    WordKernel scalar = new ScalarWordKernel();
+    for(int t = 0; t < 200; ++t) {
+      int n = r.nextInt(300);
+      long[] a = new long[n + 10], b = new long[n + 10];
+      for(int k = 0; k < a.length; ++k) {
+        a[k] = r.nextLong();
+        b[k] = r.nextInt(4) == 0 ? 0 : r.nextLong();
+      }
+      int astart = r.nextInt(10), bstart = r.nextInt(10);
+      for(int op = IteratorUtil.AND; op <= IteratorUtil.ANDNOT; ++op) {
+        long[] x = new long[n], y = new long[n];
+        WordKernel.instance.combine(op, a, astart, b, bstart, x, n);
+        scalar.combine(op, a, astart, b, bstart, y, n);
+        isTrue(java.util.Arrays.equals(x, y));
+      }
+      long[] c = a.clone();
+      WordKernel.instance.not(c, astart, n);
+      for(int k = 0; k < c.length; ++k)
+        equal(c[k], (k >= astart && k < astart + n) ? ~a[k] : a[k]);
+      equal(WordKernel.instance.bitCount(a, astart, n), scalar.bitCount(a, astart, n));
+    }
+    // dense bitmaps: long stretches of literal words, with clean words
+    // showing up in the result
+    for(int t = 0; t < 20; ++t) {
+      BitSet ra = new BitSet(), rb = new BitSet();
+      EWAHCompressedBitmap a = new EWAHCompressedBitmap(), b = new EWAHCompressedBitmap();
+      for(int k = 0; k < 64 * 2000; ++k) {
+        boolean block = (k / 64) % 7 == 0;
+        if(r.nextInt(3) != 0 || block) { a.set(k); ra.set(k); }
+        if(r.nextInt(3) != 0 && !block) { b.set(k); rb.set(k); }
+      }
+      BitSet x;
+      x = (BitSet) ra.clone(); x.and(rb); sameBits(a.and(b), x);
+      x = (BitSet) ra.clone(); x.or(rb); sameBits(a.or(b), x);
+      x = (BitSet) ra.clone(); x.xor(rb); sameBits(a.xor(b), x);
+      x = (BitSet) ra.clone(); x.andNot(rb); sameBits(a.andNot(b), x);
+      equal(a.and(b).toString(), andByCursors(a, b).toString());
+    }
+  }
+
+  private static EWAHCompressedBitmap andByCursors(EWAHCompressedBitmap a, EWAHCompressedBitmap b) {
+    EWAHCompressedBitmap c = new EWAHCompressedBitmap();
+    IteratorUtil.and(a.getIteratingRLW(), b.getIteratingRLW(), c);
+    return c;
+  }
+
+  public void testResultCache() {
+    System.out.println("testing EWAH result cache");
+    Random r = new Random(2525);
+    BitSet ra = new BitSet(), rb = new BitSet();
+    EWAHCompressedBitmap a = randomBitmap(r, ra), b = randomBitmap(r, rb);
+    ResultCache cache = new ResultCache(1 << 20);
+    EWAHCompressedBitmap x = cache.and(a, b);
+    BitSet y = (BitSet) ra.clone(); y.and(rb);
+    sameBits(x, y);
+    isTrue(cache.and(a, b) == x);
+    equal(cache.getHits(), 1);
+    equal(cache.getMisses(), 1);
+    equal(cache.sizeInBytes(), x.sizeInBytes());
+    // the operation and the order of the operands are part of the key
+    y = (BitSet) ra.clone(); y.andNot(rb);
+    sameBits(cache.andNot(a, b), y);
+    y = (BitSet) rb.clone(); y.andNot(ra);
+    sameBits(cache.andNot(b, a), y);
+    equal(cache.size(), 3);
+    // appending to an operand drops its results
+    long n = a.sizeInBitsAsLong();
+    a.set(n + 10);
+    ra.set((int) n + 10);
+    x = cache.or(a, b);
+    EWAHCompressedBitmap z = cache.and(a, b);
+    y = (BitSet) ra.clone(); y.and(rb);
+    sameBits(z, y);
+    equal(cache.getMisses(), 5);
+    // (the three results computed before the change are purged)
+    equal(cache.size(), 2);
+    // so does changing a result that was handed out
+    z.not();
+    isTrue(cache.and(a, b) != z);
+    sameBits(cache.and(a, b), y);
+    // the least recently used results go first
+    EWAHCompressedBitmap a2 = copy(a), b2 = copy(b), a3 = copy(a), b3 = copy(b);
+    ResultCache small = new ResultCache(2 * z.sizeInBytes());
+    EWAHCompressedBitmap first = small.and(a, b);
+    small.and(a2, b2);
+    small.and(a, b);
+    small.and(a3, b3);
+    equal(small.size(), 2);
+    isTrue(small.and(a, b) == first);
+    equal(small.getMisses(), 3);
+    small.and(a2, b2);
+    equal(small.getMisses(), 4);
+    small.clear();
+    equal(small.size(), 0);
+    equal(small.sizeInBytes(), 0);
+    // results are trimmed: the buffer of and is sized for the operands
+    EWAHCompressedBitmap even = new EWAHCompressedBitmap(), odd = new EWAHCompressedBitmap();
+    for(int k = 0; k < 64 * 100000; k += 2) {
+      even.set(k);
+      odd.set(k + 1);
+    }
+    ResultCache bounded = new ResultCache(1 << 10);
+    EWAHCompressedBitmap disjoint = bounded.and(even, odd);
+    equal(disjoint.cardinality(), 0);
+    equal(bounded.size(), 1);
+    equal(bounded.sizeInBytes(), disjoint.buffer.length * 8l);
+    isTrue(bounded.sizeInBytes() <= 1 << 10);
+    // a result larger than the cache is not kept
+    ResultCache none = new ResultCache(0);
+    none.or(a, b);
+    equal(none.size(), 0);
+    // a result whose operand changed is dropped when another is added
+    ResultCache purged = new ResultCache(1 << 20);
+    EWAHCompressedBitmap changed = EWAHCompressedBitmap.bitmapOf(1, 2, 3);
+    purged.and(changed, EWAHCompressedBitmap.bitmapOf(2, 3, 4));
+    changed.set(1000);
+    EWAHCompressedBitmap kept = purged.or(a, b);
+    equal(purged.size(), 1);
+    equal(purged.sizeInBytes(), kept.buffer.length * 8l);
+    // the operands are not kept alive by the cache
+    java.lang.ref.WeakReference<EWAHCompressedBitmap> operand = cacheFreshOperands(purged);
+    equal(purged.size(), 2);
+    for(int k = 0; (k < 100) && (operand.get() != null); ++k) {
+      System.gc();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    isTrue(operand.get() == null);
+    purged.xor(a, b);
+    equal(purged.size(), 2);
+  }
+
+  private static java.lang.ref.WeakReference<EWAHCompressedBitmap> cacheFreshOperands(ResultCache cache) {
+    EWAHCompressedBitmap fresh = EWAHCompressedBitmap.bitmapOf(5, 500, 5000);
+    cache.andNot(fresh, EWAHCompressedBitmap.bitmapOf(500));
+    return new java.lang.ref.WeakReference<EWAHCompressedBitmap>(fresh);
+  }
+
+  private static EWAHCompressedBitmap copy(EWAHCompressedBitmap b) {
+    try {
+      return (EWAHCompressedBitmap) b.clone();
+    } catch(CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void testCorruptSerialization() throws IOException {
+    System.out.println("testing EWAH corrupt word counts");
+    EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(1, 100, 1000);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    b.serialize(dos);
+    dos.close();
+    EWAHCompressedBitmap32 b32 = new EWAHCompressedBitmap32();
+    b32.set(7);
+    ByteArrayOutputStream bos32 = new ByteArrayOutputStream();
+    DataOutputStream dos32 = new DataOutputStream(bos32);
+    b32.serialize(dos32);
+    dos32.close();
+    for(int words : new int[] {0, -1, 1 << 30, Integer.MAX_VALUE}) {
+      ByteBuffer bytes = ByteBuffer.wrap(bos.toByteArray());
+      bytes.putInt(16, words);
+      EWAHCompressedBitmap copy = EWAHCompressedBitmap.bitmapOf(5);
+      try {
+        copy.deserialize(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      try {
+        copy.deserialize(bytes);
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      equal(bytes.position(), 0);
+      try {
+        ImmutableEWAHCompressedBitmap.map(bytes);
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      // the bitmap is left as it was
+      equal(copy.getPositions().toString(), "[5]");
+      copy.set(6);
+      equal(copy.cardinality(), 2);
+      ByteArrayOutputStream ext = new ByteArrayOutputStream();
+      ObjectOutputStream oo = new ObjectOutputStream(ext);
+      oo.writeInt(100);
+      oo.writeInt(words);
+      oo.writeInt(words);
+      oo.close();
+      try {
+        copy.readExternal(new ObjectInputStream(new ByteArrayInputStream(ext.toByteArray())));
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      ByteBuffer bytes32 = ByteBuffer.wrap(bos32.toByteArray());
+      bytes32.putInt(12, words);
+      EWAHCompressedBitmap32 copy32 = new EWAHCompressedBitmap32();
+      try {
+        copy32.deserialize(new DataInputStream(new ByteArrayInputStream(bytes32.array())));
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      try {
+        copy32.deserialize(bytes32);
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+      try {
+        copy32.readExternal(new ObjectInputStream(new ByteArrayInputStream(ext.toByteArray())));
+        isTrue(false);
+      } catch (IOException expected) {
+      }
+    }
+    try {
+      new EWAHCompressedBitmap().deserialize(ByteBuffer.allocate(10));
+      isTrue(false);
+    } catch (IOException expected) {
+    }
+    // the right count still reads back, in chunks
+    EWAHCompressedBitmap dense = new EWAHCompressedBitmap();
+    for(int k = 0; k < 64 * 5000; k += 3)
+      dense.set(k);
+    bos = new ByteArrayOutputStream();
+    dos = new DataOutputStream(bos);
+    dense.serialize(dos);
+    dos.close();
+    EWAHCompressedBitmap copy = new EWAHCompressedBitmap();
+    copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    equal(copy.toString(), dense.toString());
+    equal(copy.cardinality(), dense.cardinality());
+    bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    dense.writeExternal(oo);
+    oo.close();
+    copy = new EWAHCompressedBitmap();
+    copy.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    equal(copy.toString(), dense.toString());
+  }
+
+  public void testIteratorsPastTheEnd() {
+    System.out.println("testing EWAH iterators past the end");
+    EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+    b.set(3);
+    b.setRange(64, 200);
+    b.set(1000);
+    EWAHCompressedBitmap32 b32 = new EWAHCompressedBitmap32();
+    b32.set(3);
+    b32.set(1000);
+    IntIterator[] iterators = {b.intIterator(), b32.intIterator(),
+        IteratorUtil.intIterator(b.getIteratingRLW()),
+        offHeap(b).intIterator(),
+        new EWAHCompressedBitmap().intIterator()};
+    for(IntIterator i : iterators) {
+      int last = -1;
+      while(i.hasNext()) last = i.next();
+      isTrue((last == -1) || (last == 1000));
+      for(int k = 0; k < 2; ++k) {
+        try {
+          i.next();
+          isTrue(false);
+        } catch (java.util.NoSuchElementException expected) {}
+      }
+      isTrue(!i.hasNext());
+    }
+    java.util.Iterator<Integer> boxed = b.iterator();
+    while(boxed.hasNext()) boxed.next();
+    try {
+      boxed.next();
+      isTrue(false);
+    } catch (java.util.NoSuchElementException expected) {}
+    LongIterator l = b.longIterator();
+    while(l.hasNext()) l.next();
+    try {
+      l.next();
+      isTrue(false);
+    } catch (java.util.NoSuchElementException expected) {}
+  }
+
+  public void testEWAH32LogicalOperations() {
+    System.out.println("testing EWAH 32-bit and/or/xor/andNot/not");
+    Random r = new Random(3232);
+    for(int trial = 0; trial < 200; ++trial) {
+      BitSet ref1 = new BitSet();
+      BitSet ref2 = new BitSet();
+      EWAHCompressedBitmap32 b1 = randomBitmap32(r, ref1);
+      EWAHCompressedBitmap32 b2 = randomBitmap32(r, ref2);
+      BitSet and = (BitSet) ref1.clone();
+      and.and(ref2);
+      BitSet or = (BitSet) ref1.clone();
+      or.or(ref2);
+      BitSet xor = (BitSet) ref1.clone();
+      xor.xor(ref2);
+      BitSet andnot = (BitSet) ref1.clone();
+      andnot.andNot(ref2);
+      sameBits32(b1.and(b2), and);
+      sameBits32(b2.and(b1), and);
+      sameBits32(b1.or(b2), or);
+      sameBits32(b1.xor(b2), xor);
+      sameBits32(b1.andNot(b2), andnot);
+      sameBits32(EWAHCompressedBitmap32.or(b1, b2, b1), or);
+      sameBits32(EWAHCompressedBitmap32.and(b1, b2, b1), and);
+      equal(b1.andCardinality(b2), and.cardinality());
+      equal(b1.orCardinality(b2), or.cardinality());
+      equal(b1.xorCardinality(b2), xor.cardinality());
+      equal(b1.andNotCardinality(b2), andnot.cardinality());
+      equal(b1.intersects(b2), ref1.intersects(ref2));
+      for(int k = 0; k < 20; ++k) {
+        int i = r.nextInt(b1.sizeInBits() + 1);
+        equal(b1.get(i), ref1.get(i));
+      }
+      sameBits32(b1, ref1);
+      sameBits32(b2, ref2);
+      b1.not();
+      equal(b1.cardinality(), b1.computeCardinality());
+    }
+  }
+
+  public void testEWAH32LongRuns() {
+    System.out.println("testing EWAH 32-bit long runs");
+    // a marker word only counts up to 65535 clean words
+    EWAHCompressedBitmap32 b = new EWAHCompressedBitmap32();
+    BitSet ref = new BitSet();
+    b.set(3);
+    ref.set(3);
+    b.addStreamOfEmptyWords(true, 100000);
+    ref.set(32, 32 + 100000 * 32);
+    b.set(5000000);
+    ref.set(5000000);
+    sameBits32(b, ref);
+    EWAHCompressedBitmap32 c = new EWAHCompressedBitmap32();
+    c.set(2000000);
+    BitSet refc = new BitSet();
+    refc.set(2000000);
+    BitSet or = (BitSet) ref.clone();
+    or.or(refc);
+    sameBits32(b.or(c), or);
+    equal(b.andCardinality(c), 1);
+    isTrue(b.get(100000 * 32));
+    isTrue(!b.get(100001 * 32));
+  }
+
+  public void testEWAH32Serialization() throws IOException {
+    System.out.println("testing EWAH 32-bit serialize/externalize");
+    Random r = new Random(323);
+    for(int trial = 0; trial < 20; ++trial) {
+      BitSet ref = new BitSet();
+      EWAHCompressedBitmap32 b = randomBitmap32(r, ref);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bos);
+      b.serialize(dos);
+      dos.close();
+      equal(bos.size(), b.serializedSizeInBytes());
+      EWAHCompressedBitmap32 copy = new EWAHCompressedBitmap32();
+      copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+      sameBits32(copy, ref);
+      ByteBuffer bb = ByteBuffer.allocate(b.serializedSizeInBytes());
+      b.serialize(bb);
+      bb.flip();
+      copy = new EWAHCompressedBitmap32();
+      copy.deserialize(bb);
+      sameBits32(copy, ref);
+      bos = new ByteArrayOutputStream();
+      ObjectOutputStream oo = new ObjectOutputStream(bos);
+      b.writeExternal(oo);
+      oo.close();
+      copy = new EWAHCompressedBitmap32();
+      copy.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+      int next = copy.sizeInBits() + 100;
+      copy.set(next);
+      ref.set(next);
+      sameBits32(copy, ref);
+    }
+    // the 64-bit format is not mistaken for the 32-bit one
+    ByteBuffer bb = ByteBuffer.allocate(64);
+    new EWAHCompressedBitmap().serialize(bb);
+    bb.flip();
+    try {
+      new EWAHCompressedBitmap32().deserialize(bb);
+      isTrue(false);
+    } catch (IOException expected) {
+    }
+  }
+
+  public void testEWAH32IsSmallerWhenSparse() {
+    System.out.println("testing EWAH 32-bit size on sparse data");
+    EWAHCompressedBitmap b64 = new EWAHCompressedBitmap();
+    EWAHCompressedBitmap32 b32 = new EWAHCompressedBitmap32();
+    for(int k = 0; k < 1000000; k += 1000) {
+      b64.set(k);
+      b32.set(k);
+    }
+    equal(b64.getPositions().size(), b32.getPositions().size());
+    isTrue(b32.sizeInBytes() < b64.sizeInBytes());
+  }
+
+  static EWAHCompressedBitmap32 randomBitmap32(Random r, BitSet ref) {
+    EWAHCompressedBitmap32 ans = new EWAHCompressedBitmap32();
+    int pos = 0;
+    int stretches = r.nextInt(20);
+    for(int s = 0; s < stretches; ++s) {
+      int kind = r.nextInt(3);
+      int length = r.nextInt(r.nextBoolean() ? 100 : 5000);
+      for(int k = pos; k < pos + length; ++k) {
+        if((kind == 1) || ((kind == 2) && r.nextInt(4) == 0)) {
+          ans.set(k);
+          ref.set(k);
+        }
+      }
+      pos += length;
+    }
+    return ans;
+  }
+
+  static void sameBits32(EWAHCompressedBitmap32 b, BitSet ref) {
+    Vector<Integer> positions = b.getPositions();
+    equal(positions.size(), ref.cardinality());
+    equal(b.cardinality(), ref.cardinality());
+    equal(b.computeCardinality(), ref.cardinality());
+    int k = 0;
+    for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i+1))
+      equal(positions.get(k++).intValue(), i);
+  }
+
   static void equal(int x, int y) {
     if(x!=y) throw new RuntimeException(x+" != "+y);
   }
@@ -0,0 +1,53 @@
+package com.googlecode.JavaEWAH;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TestJfrOperationListener extends TestCase {
+
+  public void testRecordedEvents() throws Exception {
+    System.out.println("testing EWAH flight recorder events");
+    Path file = Files.createTempFile("ewah", ".jfr");
+    EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 100, 1000);
+    EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(100, 5000);
+    EWAHCompressedBitmap c;
+    try(Recording recording = new Recording()) {
+      recording.enable("com.googlecode.JavaEWAH.Operation");
+      recording.start();
+      JfrOperationListener.install();
+      try {
+        c = a.or(b);
+      } finally {
+        Instrumentation.setListener(null);
+      }
+      recording.stop();
+      recording.dump(file);
+    }
+    try {
+      List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+      for(RecordedEvent e : RecordingFile.readAllEvents(file))
+        if(e.getEventType().getName().equals("com.googlecode.JavaEWAH.Operation"))
+          events.add(e);
+      TestEWAH.equal(events.size(), 1);
+      RecordedEvent e = events.get(0);
+      TestEWAH.equal(e.getString("operation"), "or");
+      TestEWAH.isTrue(e.getLong("elapsed") >= 0);
+      TestEWAH.equal(e.getLong("inputWords"), a.sizeInBytes() / 8 + b.sizeInBytes() / 8);
+      TestEWAH.equal(e.getLong("outputWords"), c.sizeInBytes() / 8);
+      TestEWAH.isTrue(e.getLong("allocated") > 0);
+      // an instant event, taken when the operation ends
+      TestEWAH.isTrue(e.getDuration().equals(Duration.ZERO));
+      TestEWAH.isTrue(e.getStackTrace() == null);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}